@@ -32,6 +32,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import java.io.DataInputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -53,6 +54,10 @@ abstract class AbstractReadOnlyProviderTest {
     Uri.parse("content://"+BuildConfig.APPLICATION_ID+".no"),
     Uri.parse("content://"+BuildConfig.APPLICATION_ID+".readonly/"+
       StreamProvider.getUriPrefix(BuildConfig.APPLICATION_ID+".readonly")),
+    Uri.parse("content://"+BuildConfig.APPLICATION_ID+".lazy/"+
+      StreamProvider.getUriPrefix(BuildConfig.APPLICATION_ID+".lazy")),
+    Uri.parse("content://"+BuildConfig.APPLICATION_ID+".compiled/"+
+      StreamProvider.getUriPrefix(BuildConfig.APPLICATION_ID+".compiled")),
   };
 
   @BeforeClass
@@ -64,6 +69,12 @@ abstract class AbstractReadOnlyProviderTest {
 
     prefs.edit().clear().commit();
 
+    // where UriPrefixStore keeps the prefix nowadays; the preferences
+    // only matter to installs upgrading from older versions
+    new File(target.getFilesDir(),
+      com.commonsware.cwac.provider.BuildConfig.APPLICATION_ID+
+        ".uri-prefix").delete();
+
     if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.M) {
       InstrumentationRegistry
         .getInstrumentation()
@@ -0,0 +1,81 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class BatchQueryTest {
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".fixed";
+  private static final String[] COLUMNS= {
+    OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+  private static final int COUNT=500;
+
+  @Test
+  public void testBatch() {
+    Uri root=Uri.parse("content://"+AUTHORITY+"/"+
+      StreamProvider.getUriPrefix(AUTHORITY));
+    String good=root.buildUpon().appendPath("test-asset").build().toString();
+    String[] targets=new String[COUNT];
+
+    for (int i=0;i<COUNT;i++) {
+      targets[i]=good;
+    }
+
+    targets[1]=root.buildUpon().appendPath("no-such-strategy").build().toString();
+    targets[2]="content://"+BuildConfig.APPLICATION_ID+".plain/test-asset";
+
+    Cursor c=InstrumentationRegistry
+      .getContext()
+      .getContentResolver()
+      .query(StreamProvider.getBatchUri(AUTHORITY), COLUMNS, null,
+        targets, null);
+
+    Assert.assertNotNull(c);
+
+    try {
+      Assert.assertEquals(COUNT, c.getCount());
+      Assert.assertEquals(COLUMNS.length, c.getColumnCount());
+
+      int nameCol=c.getColumnIndex(COLUMNS[0]);
+      int sizeCol=c.getColumnIndex(COLUMNS[1]);
+
+      for (int i=0;i<COUNT;i++) {
+        Assert.assertTrue(c.moveToPosition(i));
+
+        if (i==1 || i==2) {
+          Assert.assertTrue(c.isNull(nameCol));
+          Assert.assertTrue(c.isNull(sizeCol));
+        }
+        else {
+          Assert.assertEquals("test-asset", c.getString(nameCol));
+          Assert.assertTrue(c.getLong(sizeCol)>0);
+        }
+      }
+    }
+    finally {
+      c.close();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+  
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.support.test.InstrumentationRegistry;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class CachedMetadataProviderTest extends AbstractReadWriteProviderTest {
+  @Before
+  public void setUp() {
+    getRoot().mkdirs();
+  }
+
+  @Test
+  public void testSizeAfterRewrite() throws IOException {
+    ContentResolver resolver=
+      InstrumentationRegistry.getContext().getContentResolver();
+    Uri uri=AbstractReadOnlyProviderTest.ROOTS[0].buildUpon()
+      .appendPath(getPrefix()).appendPath("__rewritten.bin").build();
+
+    try {
+      write(resolver, uri, 10);
+      Assert.assertEquals(10, querySize(resolver, uri));
+
+      // no waiting for the FileObserver to notice
+      write(resolver, uri, 100);
+      Assert.assertEquals(100, querySize(resolver, uri));
+    }
+    finally {
+      resolver.delete(uri, null, null);
+    }
+  }
+
+  private static void write(ContentResolver resolver, Uri uri,
+                            int length) throws IOException {
+    OutputStream out=resolver.openOutputStream(uri, "w");
+
+    try {
+      out.write(new byte[length]);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static long querySize(ContentResolver resolver, Uri uri) {
+    Cursor c=resolver.query(uri,
+      new String[] { OpenableColumns.SIZE }, null, null, null);
+
+    try {
+      Assert.assertTrue(c.moveToFirst());
+
+      return(c.getLong(0));
+    }
+    finally {
+      c.close();
+    }
+  }
+
+  @Override
+  public String getPrefix() {
+    return("test-cache-metadata");
+  }
+
+  @Override
+  void assertFileExists(String filename) {
+    Assert.assertTrue(new File(getRoot(), filename).exists());
+  }
+
+  @Override
+  void assertUriBuild(String filename, Uri original) {
+    Uri test=
+      StreamProvider.getUriForFile(original.getAuthority(),
+        new File(getRoot(), filename));
+
+    Assert.assertNotNull(test);
+    Assert.assertEquals(original, test);
+  }
+
+  private static File getRoot() {
+    return(new File(InstrumentationRegistry.getContext().getCacheDir(),
+      "metadata"));
+  }
+}
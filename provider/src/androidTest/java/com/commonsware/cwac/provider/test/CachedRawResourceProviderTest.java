@@ -0,0 +1,130 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CachedRawResourceProviderTest extends
+    AbstractReadOnlyProviderTest {
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".fixed";
+  private static final int OPENERS=8;
+
+  @Override
+  public InputStream getOriginal() {
+    return(InstrumentationRegistry.getContext().getResources().openRawResource(R.raw.something));
+  }
+
+  @Override
+  public Uri getStreamSource(Uri root) {
+    return(root.buildUpon().appendPath("test-cached-raw").build());
+  }
+
+  @Test
+  public void testSeekableAndSharedFill() throws Exception {
+    File cacheDir=new File(new File(new File(InstrumentationRegistry
+      .getContext().getCacheDir(), "cwac-provider"), AUTHORITY),
+      "test-cached-raw");
+
+    deleteRecursively(cacheDir);
+
+    final Uri source=getStreamSource(Uri.parse("content://"+AUTHORITY+"/"+
+      StreamProvider.getUriPrefix(AUTHORITY)));
+    final long expected=count(getOriginal());
+    ExecutorService pool=Executors.newFixedThreadPool(OPENERS);
+    List<Future<Long>> sizes=new ArrayList<Future<Long>>();
+
+    try {
+      for (int i=0;i<OPENERS;i++) {
+        sizes.add(pool.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws IOException {
+            ParcelFileDescriptor pfd=InstrumentationRegistry
+              .getContext()
+              .getContentResolver()
+              .openFileDescriptor(source, "r");
+
+            try {
+              // a pipe has no size; a cached file does
+
+              return(pfd.getStatSize());
+            }
+            finally {
+              pfd.close();
+            }
+          }
+        }));
+      }
+
+      for (Future<Long> size : sizes) {
+        Assert.assertEquals(expected, size.get().longValue());
+      }
+    }
+    finally {
+      pool.shutdown();
+    }
+
+    int copies=0;
+
+    for (File version : cacheDir.listFiles()) {
+      copies+=version.listFiles().length;
+    }
+
+    Assert.assertEquals(1, copies);
+  }
+
+  private static long count(InputStream in) throws IOException {
+    byte[] buf=new byte[8192];
+    long total=0;
+    int len;
+
+    try {
+      while ((len=in.read(buf))>=0) {
+        total+=len;
+      }
+    }
+    finally {
+      in.close();
+    }
+
+    return(total);
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children=file.listFiles();
+
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+
+    file.delete();
+  }
+}
@@ -0,0 +1,121 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentProviderClient;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class ConsumerStrategyTest {
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".synthetic";
+  private static final long LENGTH=3*1024*1024+17;
+  private ContentProviderClient client;
+  private StreamProvider provider;
+  private Uri base;
+
+  @Before
+  public void setUp() {
+    client=InstrumentationRegistry
+      .getContext()
+      .getContentResolver()
+      .acquireContentProviderClient(AUTHORITY);
+    provider=(StreamProvider)client.getLocalContentProvider();
+    base=Uri.parse("content://"+AUTHORITY+"/"+
+      StreamProvider.getUriPrefix(AUTHORITY)+"/produced");
+    SyntheticStreamProvider.CONSUMED.clear();
+  }
+
+  @After
+  public void tearDown() {
+    client.release();
+  }
+
+  @Test
+  public void testConsume() throws Exception {
+    Uri uri=base.buildUpon().appendPath(Long.toString(LENGTH)).build();
+
+    Assert.assertEquals(LENGTH, write(uri, LENGTH));
+
+    long[] result=SyntheticStreamProvider.CONSUMED.poll(5, TimeUnit.SECONDS);
+
+    Assert.assertNotNull(result);
+    Assert.assertEquals(LENGTH, result[0]);
+    Assert.assertEquals(1, result[1]);
+  }
+
+  @Test
+  public void testAbort() throws Exception {
+    Uri uri=base.buildUpon().appendPath("abort").build();
+
+    Assert.assertTrue(write(uri, 10*SyntheticStreamProvider.ABORT_AFTER)<
+      10*SyntheticStreamProvider.ABORT_AFTER);
+
+    long[] result=SyntheticStreamProvider.CONSUMED.poll(5, TimeUnit.SECONDS);
+
+    Assert.assertNotNull(result);
+    Assert.assertTrue(result[0]>=SyntheticStreamProvider.ABORT_AFTER);
+    Assert.assertEquals(0, result[1]);
+  }
+
+  /**
+   * @return the number of bytes written before the provider
+   * stopped accepting them
+   */
+  private long write(Uri uri, long length) throws IOException {
+    OutputStream out=new ParcelFileDescriptor.AutoCloseOutputStream(
+      provider.openFile(uri, "w"));
+    byte[] buf=new byte[7000];
+    long position=0;
+
+    try {
+      while (position<length) {
+        int count=(int)Math.min(buf.length, length-position);
+
+        for (int i=0;i<count;i++) {
+          buf[i]=SyntheticStreamProvider.patternByte(position+i);
+        }
+
+        out.write(buf, 0, count);
+        position+=count;
+      }
+    }
+    catch (IOException e) {
+      return(position);
+    }
+    finally {
+      try {
+        out.close();
+      }
+      catch (IOException e) {
+        // expected, if the provider aborted
+      }
+    }
+
+    return(position);
+  }
+}
@@ -0,0 +1,174 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.OpenableColumns;
+import android.system.Os;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+@RunWith(AndroidJUnit4.class)
+public class DirectoryListingTest {
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".fixed";
+  private static final String DIR="listing-test";
+  private static final String LINK_DIR="listing-link-test";
+  private static final int COUNT=100;
+
+  @BeforeClass
+  static public void initTestFiles() throws IOException {
+    File dir=new File(InstrumentationRegistry.getContext().getCacheDir(), DIR);
+
+    dir.mkdirs();
+
+    for (int i=0;i<COUNT;i++) {
+      FileOutputStream out=
+        new FileOutputStream(new File(dir, String.format("file-%03d", i)));
+
+      out.write(new byte[i+1]);
+      out.close();
+    }
+  }
+
+  @Test
+  public void testListing() {
+    Cursor c=query(null);
+
+    try {
+      Assert.assertEquals(COUNT, c.getCount());
+      Assert.assertEquals(3, c.getColumnCount());
+      Assert.assertTrue(c.getColumnIndex(StreamProvider.COLUMN_URI)>=0);
+    }
+    finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testSortAndPage() {
+    Cursor c=query(OpenableColumns.SIZE+" DESC LIMIT 10 OFFSET 5");
+
+    try {
+      int nameCol=c.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+      int sizeCol=c.getColumnIndex(OpenableColumns.SIZE);
+      int uriCol=c.getColumnIndex(StreamProvider.COLUMN_URI);
+
+      Assert.assertEquals(10, c.getCount());
+
+      for (int i=0;i<10;i++) {
+        int expected=COUNT-5-i;
+
+        Assert.assertTrue(c.moveToPosition(i));
+        Assert.assertEquals(expected, c.getLong(sizeCol));
+        Assert.assertEquals(String.format("file-%03d", expected-1),
+          c.getString(nameCol));
+
+        Cursor child=InstrumentationRegistry
+          .getContext()
+          .getContentResolver()
+          .query(Uri.parse(c.getString(uriCol)), null, null, null, null);
+
+        try {
+          Assert.assertEquals(1, child.getCount());
+        }
+        finally {
+          child.close();
+        }
+      }
+    }
+    finally {
+      c.close();
+    }
+
+    c=query(OpenableColumns.DISPLAY_NAME+" LIMIT 3");
+
+    try {
+      int nameCol=c.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+
+      Assert.assertEquals(3, c.getCount());
+      Assert.assertTrue(c.moveToLast());
+      Assert.assertEquals("file-002", c.getString(nameCol));
+    }
+    finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testSymlinkOutsideRoot() throws Exception {
+    Assume.assumeTrue(Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP);
+
+    File dir=new File(InstrumentationRegistry.getContext().getCacheDir(),
+      LINK_DIR);
+    File outside=new File(InstrumentationRegistry.getContext().getFilesDir(),
+      "listing-link-target");
+    File link=new File(dir, "link");
+    FileOutputStream out=new FileOutputStream(outside);
+
+    out.write(new byte[1234]);
+    out.close();
+    dir.mkdirs();
+    link.delete();
+    Os.symlink(outside.getAbsolutePath(), link.getAbsolutePath());
+
+    try {
+      for (String sortOrder : new String[] { null, OpenableColumns.SIZE }) {
+        Cursor c=query(LINK_DIR, sortOrder);
+
+        try {
+          Assert.assertEquals(1, c.getCount());
+          Assert.assertTrue(c.moveToFirst());
+          Assert.assertTrue(c.isNull(c.getColumnIndex(OpenableColumns.SIZE)));
+        }
+        finally {
+          c.close();
+        }
+      }
+    }
+    finally {
+      link.delete();
+      outside.delete();
+    }
+  }
+
+  private Cursor query(String sortOrder) {
+    return(query(DIR, sortOrder));
+  }
+
+  private Cursor query(String path, String sortOrder) {
+    Uri dir=Uri.parse("content://"+AUTHORITY+"/"+
+      StreamProvider.getUriPrefix(AUTHORITY)+"/test-cache/"+path);
+    Cursor result=InstrumentationRegistry
+      .getContext()
+      .getContentResolver()
+      .query(dir, null, null, null, sortOrder);
+
+    Assert.assertNotNull(result);
+
+    return(result);
+  }
+}
@@ -0,0 +1,136 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentProviderClient;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.commonsware.cwac.provider.LocalPathStrategy;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Measures write throughput through openFile() under each
+ * durability policy, for many small files and for a few large
+ * ones. The clock stops once every file has been closed and, for
+ * on-close and batched, synced, so the cost of the syncs is
+ * included. Timings are logged, not asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DurabilityBenchmark {
+  private static final String TAG="DurabilityBenchmark";
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".synthetic";
+  private static final int KB=1024;
+  private static final long SYNC_TIMEOUT_MS=60000;
+  private static final int[][] WORKLOADS={
+    { 500, 4*KB },
+    { 8, 4*KB*KB }
+  };
+
+  @Test
+  public void testNone() throws IOException {
+    run("durable-none", "none");
+  }
+
+  @Test
+  public void testOnClose() throws IOException {
+    Assume.assumeTrue(Build.VERSION.SDK_INT>=Build.VERSION_CODES.KITKAT);
+    run("durable-on-close", "on-close");
+  }
+
+  @Test
+  public void testBatched() throws IOException {
+    Assume.assumeTrue(Build.VERSION.SDK_INT>=Build.VERSION_CODES.KITKAT);
+    run("durable-batched", "batched");
+  }
+
+  private void run(String name, String label) throws IOException {
+    ContentProviderClient client=InstrumentationRegistry
+      .getContext()
+      .getContentResolver()
+      .acquireContentProviderClient(AUTHORITY);
+
+    try {
+      StreamProvider provider=
+        (StreamProvider)client.getLocalContentProvider();
+      LocalPathStrategy strategy=
+        SyntheticStreamProvider.LOCAL_STRATEGIES.get(name);
+      File dir=new File(InstrumentationRegistry.getContext().getFilesDir(),
+        "durability/"+label);
+      Uri base=Uri.parse("content://"+AUTHORITY+"/"+
+        StreamProvider.getUriPrefix(AUTHORITY)+"/"+name);
+
+      Assert.assertNotNull(strategy);
+      dir.mkdirs();
+
+      for (int[] workload : WORKLOADS) {
+        int count=workload[0];
+        int size=workload[1];
+        byte[] buf=new byte[64*KB];
+        long start=SystemClock.elapsedRealtime();
+
+        for (int i=0;i<count;i++) {
+          Uri uri=base.buildUpon().appendPath("file-"+i).build();
+          OutputStream out=new ParcelFileDescriptor.AutoCloseOutputStream(
+            provider.openFile(uri, "w"));
+
+          try {
+            for (int written=0;written<size;written+=buf.length) {
+              out.write(buf, 0, Math.min(buf.length, size-written));
+            }
+          }
+          finally {
+            out.close();
+          }
+        }
+
+        long deadline=start+SYNC_TIMEOUT_MS;
+
+        while (strategy.getUnsyncedFileCount()>0 &&
+          SystemClock.elapsedRealtime()<deadline) {
+          SystemClock.sleep(5);
+        }
+
+        Assert.assertEquals(0, strategy.getUnsyncedFileCount());
+
+        long elapsed=Math.max(1, SystemClock.elapsedRealtime()-start);
+        double mb=((double)count*size)/(KB*KB);
+
+        Log.i(TAG, String.format("%s, %d x %d bytes: %.1f MB/s, %.2f ms/file",
+          label, count, size, mb/(elapsed/1000.0),
+          (double)elapsed/count));
+
+        for (File child : dir.listFiles()) {
+          child.delete();
+        }
+      }
+    }
+    finally {
+      client.release();
+    }
+  }
+}
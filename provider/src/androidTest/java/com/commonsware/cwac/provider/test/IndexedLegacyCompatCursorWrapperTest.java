@@ -0,0 +1,96 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.database.CursorWindow;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.support.test.runner.AndroidJUnit4;
+import com.commonsware.cwac.provider.IndexedLegacyCompatCursorWrapper;
+import com.commonsware.cwac.provider.LegacyCompatCursorWrapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class IndexedLegacyCompatCursorWrapperTest {
+  private static final String[] COLUMNS= {
+    OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+  private static final int COUNT=1000;
+  private static final Uri DATA_URI=Uri.parse("content://foo/bar");
+
+  @Test
+  public void testMatchesLegacyWrapper() {
+    MatrixCursor c=buildCursor();
+    LegacyCompatCursorWrapper legacy=
+      new LegacyCompatCursorWrapper(buildCursor(), "text/plain", DATA_URI);
+    IndexedLegacyCompatCursorWrapper indexed=
+      new IndexedLegacyCompatCursorWrapper(c, "text/plain", DATA_URI);
+
+    Assert.assertArrayEquals(legacy.getColumnNames(), indexed.getColumnNames());
+    Assert.assertEquals(legacy.getColumnCount(), indexed.getColumnCount());
+
+    for (String name : legacy.getColumnNames()) {
+      Assert.assertEquals(legacy.getColumnIndex(name),
+        indexed.getColumnIndex(name));
+      Assert.assertEquals(legacy.getColumnIndex(name.toUpperCase()),
+        indexed.getColumnIndex(name.toUpperCase()));
+    }
+
+    Assert.assertEquals(-1, indexed.getColumnIndex("nope"));
+
+    int dataCol=indexed.getColumnIndex(MediaStore.MediaColumns.DATA);
+    int mimeCol=indexed.getColumnIndex(MediaStore.MediaColumns.MIME_TYPE);
+
+    Assert.assertTrue(indexed.moveToPosition(7));
+    Assert.assertEquals(DATA_URI.toString(), indexed.getString(dataCol));
+    Assert.assertEquals("text/plain", indexed.getString(mimeCol));
+    Assert.assertEquals("file-7", indexed.getString(0));
+  }
+
+  @Test
+  public void testFillWindow() {
+    IndexedLegacyCompatCursorWrapper indexed=
+      new IndexedLegacyCompatCursorWrapper(buildCursor(), "text/plain");
+    CursorWindow window=new CursorWindow(false);
+
+    try {
+      indexed.fillWindow(10, window);
+
+      Assert.assertEquals(10, window.getStartPosition());
+      Assert.assertEquals(COUNT-10, window.getNumRows());
+      Assert.assertEquals("file-10", window.getString(10, 0));
+      Assert.assertEquals(10L, window.getLong(10, 1));
+      Assert.assertTrue(window.isNull(10, 2));
+      Assert.assertEquals("text/plain", window.getString(10, 3));
+    }
+    finally {
+      window.close();
+      indexed.close();
+    }
+  }
+
+  private MatrixCursor buildCursor() {
+    MatrixCursor result=new MatrixCursor(COLUMNS, COUNT);
+
+    for (int i=0;i<COUNT;i++) {
+      result.addRow(new Object[] {"file-"+i, (long)i});
+    }
+
+    return(result);
+  }
+}
@@ -0,0 +1,157 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Confirms that inserted content only shows up once the client
+ * closes its file descriptor, and that a preallocated file is
+ * trimmed to what the client actually wrote.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InsertTest {
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".fixed";
+  private static final String DIR="insert-test";
+  private static final int EXPECTED_SIZE=1024*1024;
+  private static final int WRITTEN_SIZE=600*1024;
+  private static final long TIMEOUT_MS=5000;
+  private ContentResolver resolver;
+  private File dir;
+  private Uri dirUri;
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue(Build.VERSION.SDK_INT>=Build.VERSION_CODES.KITKAT);
+
+    resolver=InstrumentationRegistry.getContext().getContentResolver();
+    // served from a path that caches metadata, so this also checks
+    // that publishing invalidates the cache
+    dir=new File(new File(InstrumentationRegistry.getContext().getCacheDir(),
+      "metadata"), DIR);
+    dir.mkdirs();
+
+    for (File child : dir.listFiles()) {
+      child.delete();
+    }
+
+    dirUri=Uri.parse("content://"+AUTHORITY+"/"+
+      StreamProvider.getUriPrefix(AUTHORITY)+"/test-cache-metadata/"+DIR);
+  }
+
+  @Test
+  public void testInsert() throws IOException {
+    ContentValues values=new ContentValues();
+
+    values.put(OpenableColumns.DISPLAY_NAME, "recording.bin");
+    values.put(OpenableColumns.SIZE, EXPECTED_SIZE);
+
+    Uri uri=resolver.insert(dirUri, values);
+
+    Assert.assertNotNull(uri);
+    Assert.assertEquals("recording.bin", uri.getLastPathSegment());
+
+    OutputStream out=resolver.openOutputStream(uri);
+
+    try {
+      out.write(new byte[WRITTEN_SIZE]);
+      assertNotVisible(uri);
+    }
+    finally {
+      out.close();
+    }
+
+    File published=new File(dir, "recording.bin");
+    long deadline=SystemClock.elapsedRealtime()+TIMEOUT_MS;
+
+    while (!published.exists() && SystemClock.elapsedRealtime()<deadline) {
+      SystemClock.sleep(50);
+    }
+
+    Assert.assertTrue(published.exists());
+    Assert.assertEquals(WRITTEN_SIZE, published.length());
+    Assert.assertEquals(1, countChildren());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testDuplicate() {
+    ContentValues values=new ContentValues();
+
+    values.put(OpenableColumns.DISPLAY_NAME, "duplicate.bin");
+    Assert.assertNotNull(resolver.insert(dirUri, values));
+    resolver.insert(dirUri, values);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testBadName() {
+    ContentValues values=new ContentValues();
+
+    values.put(OpenableColumns.DISPLAY_NAME, "../escape.bin");
+    resolver.insert(dirUri, values);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testTempName() {
+    ContentValues values=new ContentValues();
+
+    values.put(OpenableColumns.DISPLAY_NAME, ".recording.bin.upload");
+    resolver.insert(dirUri, values);
+  }
+
+  private void assertNotVisible(Uri uri) {
+    Assert.assertEquals(0, countChildren());
+
+    try {
+      resolver.openInputStream(uri).close();
+      Assert.fail("Partial content was readable");
+    }
+    catch (FileNotFoundException e) {
+      // expected
+    }
+    catch (IOException e) {
+      Assert.fail(e.getMessage());
+    }
+  }
+
+  private int countChildren() {
+    Cursor c=resolver.query(dirUri, null, null, null, null);
+
+    try {
+      return(c.getCount());
+    }
+    finally {
+      c.close();
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.webkit.MimeTypeMap;
+import com.commonsware.cwac.provider.MimeResolver;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.util.HashMap;
+
+@RunWith(AndroidJUnit4.class)
+public class MimeResolverTest {
+  @Test
+  public void testDefault() {
+    MimeResolver resolver=MimeResolver.getDefault();
+    MimeTypeMap map=MimeTypeMap.getSingleton();
+
+    Assert.assertEquals(map.getMimeTypeFromExtension("png"),
+      resolver.getTypeForName("/data/foo/ic_launcher.png"));
+    Assert.assertEquals(map.getMimeTypeFromExtension("png"),
+      resolver.getTypeForName("IC_LAUNCHER.PNG"));
+    Assert.assertEquals(map.getMimeTypeFromExtension("pdf"),
+      resolver.getTypeForExtension("x.pdf!", 2, 5));
+    Assert.assertNull(resolver.getTypeForName("/data/foo.d/README"));
+    Assert.assertNull(resolver.getTypeForName("trailing."));
+    Assert.assertNull(resolver.getTypeForName("unknown.notarealextension"));
+  }
+
+  @Test
+  public void testDerive() {
+    MimeResolver resolver=MimeResolver.getDefault();
+    HashMap<String, String> overrides=new HashMap<String, String>();
+
+    overrides.put("LOG", "text/plain");
+    overrides.put("png", "image/x-custom");
+
+    MimeResolver derived=resolver.derive(null, overrides);
+
+    Assert.assertEquals("text/plain", derived.getTypeForName("app.log"));
+    Assert.assertEquals("image/x-custom", derived.getTypeForName("a.png"));
+    Assert.assertEquals(resolver.getTypeForName("a.jpg"),
+      derived.getTypeForName("a.jpg"));
+
+    MimeResolver fixed=resolver.derive("application/x-thing", null);
+
+    Assert.assertEquals("application/x-thing", fixed.getTypeForName("README"));
+    Assert.assertSame(resolver, resolver.derive(null, null));
+  }
+}
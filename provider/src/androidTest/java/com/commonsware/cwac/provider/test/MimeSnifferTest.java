@@ -0,0 +1,95 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Confirms that a path with sniffMimeType="true" works out the
+ * MIME type of files without extensions from their contents, and
+ * that a remembered result is not used once the file changes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MimeSnifferTest {
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".fixed";
+  private static final byte[] PNG={ (byte)0x89, 'P', 'N', 'G', 0x0D,
+    0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D, 'I', 'H', 'D', 'R' };
+  private static final byte[] PDF={ '%', 'P', 'D', 'F', '-', '1', '.',
+    '4', '\n', '%', 'x', 'x', 'x', 'x', '\n', '1', ' ', '0', ' ', 'o',
+    'b', 'j' };
+  private static final byte[] UNKNOWN={ 'n', 'o', 't', ' ', 'a', 'n',
+    'y', ' ', 'f', 'o', 'r', 'm', 'a', 't' };
+  private ContentResolver resolver;
+  private File dir;
+
+  @Before
+  public void setUp() {
+    resolver=InstrumentationRegistry.getContext().getContentResolver();
+    dir=new File(InstrumentationRegistry.getContext().getFilesDir(),
+      "sniff");
+    dir.mkdirs();
+  }
+
+  @Test
+  public void testPng() throws IOException {
+    Assert.assertEquals("image/png", getType("png-header", PNG));
+  }
+
+  @Test
+  public void testPdf() throws IOException {
+    Assert.assertEquals("application/pdf", getType("pdf-header", PDF));
+  }
+
+  @Test
+  public void testUnknown() throws IOException {
+    Assert.assertEquals("application/octet-stream",
+      getType("unknown-header", UNKNOWN));
+  }
+
+  @Test
+  public void testChanged() throws IOException {
+    Assert.assertEquals("image/png", getType("changed", PNG));
+
+    // a different length, so the change is seen even if the
+    // modification time has not ticked over
+    Assert.assertEquals("application/pdf", getType("changed", PDF));
+  }
+
+  private String getType(String name, byte[] content) throws IOException {
+    FileOutputStream out=new FileOutputStream(new File(dir, name));
+
+    try {
+      out.write(content);
+    }
+    finally {
+      out.close();
+    }
+
+    return(resolver.getType(Uri.parse("content://"+AUTHORITY+"/"+
+      StreamProvider.getUriPrefix(AUTHORITY)+"/test-sniff/"+name)));
+  }
+}
@@ -0,0 +1,137 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentProviderClient;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.commonsware.cwac.provider.StreamProvider;
+import com.commonsware.cwac.provider.TransferScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures pipe transfers of 1KB, 1MB and 500MB streams, through
+ * a pipe of the default capacity and through a 1MB pipe, logging
+ * MB/s, process CPU time per MB, and the number of transfers and
+ * writes. Small streams are repeated until 10MB has gone through,
+ * so the timings are not lost in the noise. Timings are logged,
+ * not asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PipeCapacityBenchmark {
+  private static final String TAG="PipeCapacityBenchmark";
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".synthetic";
+  private static final long MB=1024*1024;
+  private static final long MIN_TOTAL=10*MB;
+  private static final long[] SIZES={ 1024, MB, 500*MB };
+
+  @Test
+  public void testDefaultCapacity() throws IOException {
+    run("default-pipe");
+  }
+
+  @Test
+  public void testLargeCapacity() throws IOException {
+    run("large-pipe");
+  }
+
+  private void run(String name) throws IOException {
+    ContentProviderClient client=InstrumentationRegistry
+      .getContext()
+      .getContentResolver()
+      .acquireContentProviderClient(AUTHORITY);
+
+    try {
+      StreamProvider provider=
+        (StreamProvider)client.getLocalContentProvider();
+      Uri base=Uri.parse("content://"+AUTHORITY+"/"+
+        StreamProvider.getUriPrefix(AUTHORITY)+"/"+name);
+
+      for (long size : SIZES) {
+        Uri uri=base.buildUpon().appendPath(Long.toString(size)).build();
+        TransferScheduler scheduler=TransferScheduler.getDefault();
+        long transfersBefore=scheduler.getCompletedTransferCount();
+        long writesBefore=scheduler.getCompletedWriteCount();
+        long cpuBefore=Process.getElapsedCpuTime();
+        long start=System.nanoTime();
+        long total=0;
+
+        while (total<Math.max(size, MIN_TOTAL)) {
+          Assert.assertEquals(size,
+            drain(new ParcelFileDescriptor.AutoCloseInputStream(
+              provider.openFile(uri, "r"))));
+          total+=size;
+        }
+
+        double seconds=(System.nanoTime()-start)/1000000000.0;
+        double megabytes=total/(double)MB;
+
+        awaitIdle(scheduler);
+
+        Log.i(TAG, String.format("%s, %d bytes: %.1f MB/s, %.2f ms CPU/MB, "
+            +"%d transfers, %d writes",
+          name, size, megabytes/seconds,
+          (Process.getElapsedCpuTime()-cpuBefore)/megabytes,
+          scheduler.getCompletedTransferCount()-transfersBefore,
+          scheduler.getCompletedWriteCount()-writesBefore));
+      }
+    }
+    finally {
+      client.release();
+    }
+  }
+
+  // the client sees EOF just before the transfer removes itself
+  // from the scheduler, so give the last one a moment
+  private static void awaitIdle(TransferScheduler scheduler) {
+    for (int i=0;i<100 && !scheduler.getActiveTransfers().isEmpty();i++) {
+      try {
+        Thread.sleep(10);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private static long drain(InputStream in) throws IOException {
+    byte[] buf=new byte[65536];
+    long total=0;
+    int len;
+
+    try {
+      while ((len=in.read(buf))>=0) {
+        total+=len;
+      }
+    }
+    finally {
+      in.close();
+    }
+
+    return(total);
+  }
+}
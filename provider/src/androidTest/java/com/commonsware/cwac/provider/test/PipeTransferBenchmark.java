@@ -0,0 +1,146 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentProviderClient;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Measures how fast a raw resource comes through the pipe from
+ * openFile(), where the provider uses sendfile(),
+ * against a plain heap copy of the same resource into a pipe, as
+ * the provider used to do. The resource is read repeatedly until
+ * 100 MB has gone through each path, rather than shipping a
+ * 100 MB test resource. Timings are logged, not asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PipeTransferBenchmark {
+  private static final String TAG="PipeTransferBenchmark";
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".fixed";
+  private static final long TOTAL=100L*1024*1024;
+
+  @Test
+  public void testRawResourceThroughput() throws IOException {
+    ContentProviderClient client=InstrumentationRegistry
+      .getContext()
+      .getContentResolver()
+      .acquireContentProviderClient(AUTHORITY);
+
+    try {
+      StreamProvider provider=
+        (StreamProvider)client.getLocalContentProvider();
+      Uri uri=Uri.parse("content://"+AUTHORITY+"/"+
+        StreamProvider.getUriPrefix(AUTHORITY)+"/test-raw");
+      long size=drain(new ParcelFileDescriptor.AutoCloseInputStream(
+        provider.openFile(uri, "r")));
+
+      Assert.assertTrue(size>0);
+
+      long transferred=0;
+      long start=System.nanoTime();
+
+      while (transferred<TOTAL) {
+        Assert.assertEquals(size,
+          drain(new ParcelFileDescriptor.AutoCloseInputStream(
+            provider.openFile(uri, "r"))));
+        transferred+=size;
+      }
+
+      log("sendfile()", transferred, System.nanoTime()-start);
+
+      transferred=0;
+      start=System.nanoTime();
+
+      while (transferred<TOTAL) {
+        Assert.assertEquals(size, drain(copyThroughHeap()));
+        transferred+=size;
+      }
+
+      log("heap copy", transferred, System.nanoTime()-start);
+    }
+    finally {
+      client.release();
+    }
+  }
+
+  private InputStream copyThroughHeap() throws IOException {
+    final ParcelFileDescriptor[] pipe=ParcelFileDescriptor.createPipe();
+    final InputStream in=InstrumentationRegistry.getContext()
+      .getResources().openRawResource(R.raw.something);
+
+    new Thread() {
+      @Override
+      public void run() {
+        OutputStream out=
+          new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+        byte[] buf=new byte[16384];
+        int len;
+
+        try {
+          try {
+            while ((len=in.read(buf))>=0) {
+              out.write(buf, 0, len);
+            }
+          }
+          finally {
+            in.close();
+            out.close();
+          }
+        }
+        catch (IOException e) {
+          Log.e(TAG, "Exception copying resource", e);
+        }
+      }
+    }.start();
+
+    return(new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]));
+  }
+
+  private static void log(String label, long bytes, long nanos) {
+    Log.i(TAG, String.format("%s: %.1f MB/s", label,
+      (bytes/(1024.0*1024.0))/(nanos/1000000000.0)));
+  }
+
+  private static long drain(InputStream in) throws IOException {
+    byte[] buf=new byte[65536];
+    long total=0;
+    int len;
+
+    try {
+      while ((len=in.read(buf))>=0) {
+        total+=len;
+      }
+    }
+    finally {
+      in.close();
+    }
+
+    return(total);
+  }
+}
@@ -0,0 +1,169 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentProviderClient;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.commonsware.cwac.provider.AbstractProducerStrategy;
+import com.commonsware.cwac.provider.MimeResolver;
+import com.commonsware.cwac.provider.PipeTransfer;
+import com.commonsware.cwac.provider.ProducerOutputStream;
+import com.commonsware.cwac.provider.StreamProvider;
+import com.commonsware.cwac.provider.TransferScheduler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.IOException;
+import java.io.InputStream;
+
+@RunWith(AndroidJUnit4.class)
+public class ProducerStrategyTest {
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".synthetic";
+  private static final long LENGTH=3*1024*1024+17;
+  private static final long TIMEOUT_MS=5000;
+  private static final long SHORT_IDLE_TIMEOUT_MS=250;
+  private ContentProviderClient client;
+  private StreamProvider provider;
+  private Uri uri;
+
+  @Before
+  public void setUp() {
+    client=InstrumentationRegistry
+      .getContext()
+      .getContentResolver()
+      .acquireContentProviderClient(AUTHORITY);
+    provider=(StreamProvider)client.getLocalContentProvider();
+    uri=Uri.parse("content://"+AUTHORITY+"/"+
+      StreamProvider.getUriPrefix(AUTHORITY)+"/produced/"+LENGTH);
+  }
+
+  @After
+  public void tearDown() {
+    client.release();
+  }
+
+  @Test
+  public void testProduce() throws IOException {
+    InputStream in=new ParcelFileDescriptor.AutoCloseInputStream(
+      provider.openFile(uri, "r"));
+    byte[] buf=new byte[10000];
+    long position=0;
+    int len;
+
+    try {
+      while ((len=in.read(buf))>=0) {
+        for (int i=0;i<len;i++) {
+          Assert.assertEquals(SyntheticStreamProvider.patternByte(position+i),
+            buf[i]);
+        }
+
+        position+=len;
+      }
+    }
+    finally {
+      in.close();
+    }
+
+    Assert.assertEquals(LENGTH, position);
+  }
+
+  @Test
+  public void testClientCloseStopsProducer() throws IOException {
+    Assume.assumeTrue(Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP);
+
+    ParcelFileDescriptor pfd=provider.openFile(uri, "r");
+    InputStream in=new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+
+    Assert.assertTrue(in.read(new byte[1024])>0);
+    in.close();
+
+    long deadline=SystemClock.elapsedRealtime()+TIMEOUT_MS;
+    boolean gone=false;
+
+    while (!gone && SystemClock.elapsedRealtime()<deadline) {
+      gone=true;
+
+      for (PipeTransfer transfer :
+        TransferScheduler.getDefault().getActiveTransfers()) {
+        if (uri.toString().equals(transfer.getDescription())) {
+          gone=false;
+        }
+      }
+
+      SystemClock.sleep(50);
+    }
+
+    Assert.assertTrue(gone);
+  }
+
+  @Test
+  public void testSlowProducerNotTimedOut() throws IOException {
+    Assume.assumeTrue(Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP);
+
+    final long length=256*1024;
+    TransferScheduler scheduler=new TransferScheduler(1,
+      Process.THREAD_PRIORITY_BACKGROUND, SHORT_IDLE_TIMEOUT_MS);
+    AbstractProducerStrategy strategy=new AbstractProducerStrategy(
+      MimeResolver.getDefault(), scheduler, 0) {
+      @Override
+      protected void produce(Uri uri, ProducerOutputStream out)
+        throws IOException {
+        byte[] buf=new byte[8192];
+
+        // longer than the idle timeout, but the client is waiting
+        SystemClock.sleep(SHORT_IDLE_TIMEOUT_MS*4);
+
+        for (long position=0;position<length;position+=buf.length) {
+          for (int i=0;i<buf.length;i++) {
+            buf[i]=SyntheticStreamProvider.patternByte(position+i);
+          }
+
+          out.write(buf);
+        }
+      }
+    };
+    InputStream in=new ParcelFileDescriptor.AutoCloseInputStream(
+      strategy.openFile(Uri.parse("content://"+AUTHORITY+"/slow"), "r"));
+    byte[] buf=new byte[10000];
+    long position=0;
+    int len;
+
+    try {
+      while ((len=in.read(buf))>=0) {
+        for (int i=0;i<len;i++) {
+          Assert.assertEquals(SyntheticStreamProvider.patternByte(position+i),
+            buf[i]);
+        }
+
+        position+=len;
+      }
+    }
+    finally {
+      in.close();
+    }
+
+    Assert.assertEquals(length, position);
+  }
+}
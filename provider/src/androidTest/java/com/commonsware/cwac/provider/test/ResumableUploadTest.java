@@ -0,0 +1,238 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.OpenableColumns;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Confirms that a resumable upload can be written in pieces,
+ * reports its length so far, stays hidden until committed, can be
+ * aborted, is picked up again from its temporary file (as after a
+ * restart), and is cleaned up once it is too old.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ResumableUploadTest {
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".fixed";
+  private static final String DIR="upload-test";
+  private static final int CHUNK=100*1024;
+  private ContentResolver resolver;
+  private File dir;
+  private Uri dirUri;
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue(Build.VERSION.SDK_INT>=Build.VERSION_CODES.KITKAT);
+
+    resolver=InstrumentationRegistry.getContext().getContentResolver();
+    // served from a path that caches metadata, so this also checks
+    // that publishing invalidates the cache
+    dir=new File(new File(InstrumentationRegistry.getContext().getCacheDir(),
+      "metadata"), DIR);
+    dir.mkdirs();
+
+    for (File child : dir.listFiles()) {
+      child.delete();
+    }
+
+    dirUri=Uri.parse("content://"+AUTHORITY+"/"+
+      StreamProvider.getUriPrefix(AUTHORITY)+"/test-cache-metadata/"+DIR);
+  }
+
+  @Test
+  public void testResume() throws IOException {
+    Uri uri=insert("resumed.bin");
+
+    write(uri, "w", 0, CHUNK);
+    Assert.assertEquals(CHUNK, querySize(uri));
+    assertNotReadable(uri);
+
+    write(uri, "wa", CHUNK, CHUNK/2);
+    Assert.assertEquals(CHUNK+CHUNK/2, querySize(uri));
+    assertNotReadable(uri);
+
+    Assert.assertEquals(1, commit(uri, true));
+
+    File published=new File(dir, "resumed.bin");
+
+    Assert.assertTrue(published.exists());
+    assertPattern(new FileInputStream(published), CHUNK+CHUNK/2);
+    Assert.assertEquals(1, countChildren());
+  }
+
+  @Test
+  public void testAbort() throws IOException {
+    Uri uri=insert("aborted.bin");
+
+    write(uri, "w", 0, CHUNK);
+    Assert.assertEquals(1, commit(uri, false));
+    Assert.assertEquals(0, querySize(uri));
+    Assert.assertEquals(0, dir.list().length);
+  }
+
+  @Test
+  public void testRecovered() throws IOException {
+    // what an upload interrupted by a restart leaves behind
+    FileOutputStream out=
+      new FileOutputStream(new File(dir, ".recovered.bin.upload"));
+
+    out.write(buildPattern(0, CHUNK));
+    out.close();
+
+    Uri uri=dirUri.buildUpon().appendPath("recovered.bin").build();
+
+    Assert.assertEquals(CHUNK, querySize(uri));
+    write(uri, "wa", CHUNK, CHUNK);
+    Assert.assertEquals(1, commit(uri, true));
+    assertPattern(new FileInputStream(new File(dir, "recovered.bin")),
+      2*CHUNK);
+  }
+
+  @Test
+  public void testExpired() throws IOException {
+    File stale=new File(dir, ".stale.bin.upload");
+
+    Assert.assertTrue(stale.createNewFile());
+    Assert.assertTrue(stale.setLastModified(
+      System.currentTimeMillis()-2*24*60*60*1000L));
+
+    insert("fresh.bin");
+    Assert.assertFalse(stale.exists());
+  }
+
+  private Uri insert(String name) {
+    ContentValues values=new ContentValues();
+
+    values.put(OpenableColumns.DISPLAY_NAME, name);
+    values.put(StreamProvider.UPLOAD_RESUMABLE, true);
+
+    Uri result=resolver.insert(dirUri, values);
+
+    Assert.assertNotNull(result);
+
+    return(result);
+  }
+
+  private int commit(Uri uri, boolean commit) {
+    ContentValues values=new ContentValues();
+
+    values.put(StreamProvider.UPLOAD_COMMIT, commit);
+
+    return(resolver.update(uri, values, null, null));
+  }
+
+  private void write(Uri uri, String mode, int offset, int count)
+    throws IOException {
+    OutputStream out=resolver.openOutputStream(uri, mode);
+
+    try {
+      out.write(buildPattern(offset, count));
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private long querySize(Uri uri) {
+    Cursor c=resolver.query(uri, null, null, null, null);
+
+    try {
+      Assert.assertTrue(c.moveToFirst());
+
+      return(c.getLong(c.getColumnIndex(OpenableColumns.SIZE)));
+    }
+    finally {
+      c.close();
+    }
+  }
+
+  private void assertNotReadable(Uri uri) {
+    Assert.assertEquals(0, countChildren());
+
+    try {
+      resolver.openInputStream(uri).close();
+      Assert.fail("Partial content was readable");
+    }
+    catch (FileNotFoundException e) {
+      // expected
+    }
+    catch (IOException e) {
+      Assert.fail(e.getMessage());
+    }
+  }
+
+  private int countChildren() {
+    Cursor c=resolver.query(dirUri, null, null, null, null);
+
+    try {
+      return(c.getCount());
+    }
+    finally {
+      c.close();
+    }
+  }
+
+  private static byte[] buildPattern(int offset, int count) {
+    byte[] result=new byte[count];
+
+    for (int i=0;i<count;i++) {
+      result[i]=(byte)((offset+i)%251);
+    }
+
+    return(result);
+  }
+
+  private static void assertPattern(InputStream in, int length)
+    throws IOException {
+    byte[] buf=new byte[8192];
+    int position=0;
+    int len;
+
+    try {
+      while ((len=in.read(buf))>=0) {
+        for (int i=0;i<len;i++) {
+          Assert.assertEquals((byte)((position+i)%251), buf[i]);
+        }
+
+        position+=len;
+      }
+    }
+    finally {
+      in.close();
+    }
+
+    Assert.assertEquals(length, position);
+  }
+}
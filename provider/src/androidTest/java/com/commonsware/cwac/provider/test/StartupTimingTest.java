@@ -0,0 +1,125 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.commonsware.cwac.provider.StreamProvider;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares provider startup when attachInfo() is handed a
+ * ProviderInfo that already has its meta-data against startup
+ * when StreamProvider has to go to PackageManager for it. Timings
+ * are logged rather than asserted, as they are too noisy on
+ * shared test devices to make a reliable pass/fail check. The
+ * number of trips to PackageManager is asserted, though: none with
+ * meta-data, and one without.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupTimingTest {
+  private static final String TAG="StartupTimingTest";
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".fixed";
+  private static final int WARMUP=5;
+  private static final int ITERATIONS=50;
+
+  @Test
+  public void testAttachTiming() {
+    Context ctxt=InstrumentationRegistry.getContext();
+    ProviderInfo withMetaData=
+      ctxt.getPackageManager().resolveContentProvider(AUTHORITY,
+        PackageManager.GET_META_DATA);
+
+    Assert.assertNotNull(withMetaData);
+    Assert.assertNotNull(withMetaData.metaData);
+
+    ProviderInfo withoutMetaData=new ProviderInfo(withMetaData);
+
+    withoutMetaData.metaData=null;
+
+    attach(ctxt, withMetaData, WARMUP);
+    attach(ctxt, withoutMetaData, WARMUP);
+
+    long preloaded=attach(ctxt, withMetaData, ITERATIONS);
+    long resolved=attach(ctxt, withoutMetaData, ITERATIONS);
+
+    Log.i(TAG, String.format("attachInfo() with meta-data: %d us/op",
+      preloaded/ITERATIONS/1000));
+    Log.i(TAG, String.format("attachInfo() without meta-data: %d us/op",
+      resolved/ITERATIONS/1000));
+  }
+
+  @Test
+  public void testPackageManagerCalls() {
+    Context ctxt=InstrumentationRegistry.getContext();
+    ProviderInfo withMetaData=
+      ctxt.getPackageManager().resolveContentProvider(AUTHORITY,
+        PackageManager.GET_META_DATA);
+    ProviderInfo withoutMetaData=new ProviderInfo(withMetaData);
+
+    withoutMetaData.metaData=null;
+
+    CountingContext counting=new CountingContext(ctxt);
+
+    attach(counting, withMetaData, 1);
+    Assert.assertEquals(0, counting.packageManagerCalls);
+
+    attach(counting, withoutMetaData, 1);
+    Assert.assertEquals(1, counting.packageManagerCalls);
+  }
+
+  private long attach(Context ctxt, ProviderInfo info, int count) {
+    long total=0;
+
+    for (int i=0;i<count;i++) {
+      StreamProvider provider=new FixedPrefixStreamProvider();
+      long start=System.nanoTime();
+
+      provider.attachInfo(ctxt, info);
+      total+=System.nanoTime()-start;
+
+      Uri uri=Uri.parse("content://"+AUTHORITY+"/"+
+        StreamProvider.getUriPrefix(AUTHORITY)+"/test-standard/icon.png");
+
+      Assert.assertEquals("image/png", provider.getType(uri));
+    }
+
+    return(total);
+  }
+
+  private static class CountingContext extends ContextWrapper {
+    int packageManagerCalls=0;
+
+    CountingContext(Context base) {
+      super(base);
+    }
+
+    @Override
+    public PackageManager getPackageManager() {
+      packageManagerCalls++;
+
+      return(super.getPackageManager());
+    }
+  }
+}
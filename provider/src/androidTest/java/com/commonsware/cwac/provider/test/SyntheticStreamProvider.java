@@ -0,0 +1,213 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import com.commonsware.cwac.provider.AbstractPipeStrategy;
+import com.commonsware.cwac.provider.AbstractProducerStrategy;
+import com.commonsware.cwac.provider.ConsumerInputStream;
+import com.commonsware.cwac.provider.LocalPathStrategy;
+import com.commonsware.cwac.provider.MimeResolver;
+import com.commonsware.cwac.provider.ProducerOutputStream;
+import com.commonsware.cwac.provider.StreamProvider;
+import com.commonsware.cwac.provider.StreamStrategy;
+import com.commonsware.cwac.provider.TransferScheduler;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Serves generated streams through pipes, with the length taken
+ * from the last segment of the Uri, so pipe transfers can be
+ * measured at any size without shipping test content.
+ * synthetic-path elements read zeros from an InputStream;
+ * produced-path elements write a repeating byte pattern (see
+ * patternByte()) from an AbstractProducerStrategy, and also accept
+ * that pattern when opened for writing, reporting the results in
+ * CONSUMED. Writes to a Uri ending in "abort" are rejected after
+ * ABORT_AFTER bytes. Other elements are handled as usual, with
+ * any LocalPathStrategy kept in LOCAL_STRATEGIES, by name, so tests
+ * can check on them.
+ */
+public class SyntheticStreamProvider extends StreamProvider {
+  private static final String TAG="synthetic-path";
+  private static final String TAG_PRODUCED="produced-path";
+  static final long ABORT_AFTER=1024*1024;
+  static final LinkedBlockingQueue<long[]> CONSUMED=
+    new LinkedBlockingQueue<long[]>();
+  static final ConcurrentHashMap<String, LocalPathStrategy> LOCAL_STRATEGIES=
+    new ConcurrentHashMap<String, LocalPathStrategy>();
+
+  static byte patternByte(long position) {
+    return((byte)(position%251));
+  }
+
+  @Override
+  protected StreamStrategy buildStrategy(Context context,
+                                         String tag, String name,
+                                         String path, boolean readOnly,
+                                         HashMap<String, String> attrs)
+    throws IOException {
+    if (TAG.equals(tag)) {
+      String capacity=attrs.get("pipeCapacity");
+
+      return(new SyntheticStrategy(capacity == null ? 0 :
+        Integer.parseInt(capacity)));
+    }
+
+    else if (TAG_PRODUCED.equals(tag)) {
+      return(new PatternProducerStrategy());
+    }
+
+    StreamStrategy result=
+      super.buildStrategy(context, tag, name, path, readOnly, attrs);
+
+    if (result instanceof LocalPathStrategy) {
+      LOCAL_STRATEGIES.put(name, (LocalPathStrategy)result);
+    }
+
+    return(result);
+  }
+
+  private static class PatternProducerStrategy
+    extends AbstractProducerStrategy {
+    @Override
+    protected void produce(Uri uri, ProducerOutputStream out)
+      throws IOException {
+      long length=getLength(uri);
+      byte[] buf=new byte[8192];
+      long position=0;
+
+      while (position<length) {
+        int count=(int)Math.min(buf.length, length-position);
+
+        for (int i=0;i<count;i++) {
+          buf[i]=patternByte(position+i);
+        }
+
+        out.write(buf, 0, count);
+        position+=count;
+      }
+    }
+
+    @Override
+    public long getLength(Uri uri) {
+      return(Long.parseLong(uri.getLastPathSegment()));
+    }
+
+    @Override
+    protected boolean canConsume(Uri uri) {
+      return(true);
+    }
+
+    @Override
+    protected void consume(Uri uri, ConsumerInputStream in)
+      throws IOException {
+      boolean abort="abort".equals(uri.getLastPathSegment());
+      byte[] buf=new byte[5000];
+      long position=0;
+      int len;
+
+      while ((len=in.read(buf))>=0) {
+        for (int i=0;i<len;i++) {
+          if (buf[i] != patternByte(position+i)) {
+            in.abort("Unexpected content at "+(position+i));
+
+            return;
+          }
+        }
+
+        position+=len;
+
+        if (abort && position>=ABORT_AFTER) {
+          in.abort("Rejected");
+
+          return;
+        }
+      }
+    }
+
+    @Override
+    protected void onConsumeFinished(Uri uri, long byteCount,
+                                     boolean completed) {
+      CONSUMED.offer(new long[] { byteCount, completed ? 1 : 0 });
+    }
+  }
+
+  private static class SyntheticStrategy extends AbstractPipeStrategy {
+    SyntheticStrategy(int pipeCapacity) {
+      super(MimeResolver.getDefault(), TransferScheduler.getDefault(),
+        pipeCapacity);
+    }
+
+    @Override
+    protected InputStream getInputStream(Uri uri) {
+      return(new ZeroInputStream(getLength(uri)));
+    }
+
+    @Override
+    public long getLength(Uri uri) {
+      return(Long.parseLong(uri.getLastPathSegment()));
+    }
+
+    @Override
+    public boolean hasAFD(Uri uri) {
+      return(false);
+    }
+
+    @Override
+    public AssetFileDescriptor openAssetFile(Uri uri, String mode)
+      throws FileNotFoundException {
+      throw new UnsupportedOperationException("Pipes only");
+    }
+  }
+
+  private static class ZeroInputStream extends InputStream {
+    private long remaining;
+
+    ZeroInputStream(long length) {
+      remaining=length;
+    }
+
+    @Override
+    public int read() {
+      if (remaining<=0) {
+        return(-1);
+      }
+
+      remaining--;
+
+      return(0);
+    }
+
+    @Override
+    public int read(byte[] buf, int offset, int count) {
+      if (remaining<=0) {
+        return(-1);
+      }
+
+      int result=(int)Math.min(count, remaining);
+
+      remaining-=result;
+
+      return(result);
+    }
+  }
+}
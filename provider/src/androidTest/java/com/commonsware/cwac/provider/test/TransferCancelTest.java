@@ -0,0 +1,145 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentProviderClient;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.commonsware.cwac.provider.PipeTransfer;
+import com.commonsware.cwac.provider.StreamProvider;
+import com.commonsware.cwac.provider.TransferScheduler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Confirms that a transfer stuck on a client that is not reading
+ * goes away when it is cancelled, or when the client closes its
+ * end of the pipe. The raw resource is bigger than a pipe's
+ * buffer, so the transfer cannot finish on its own.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TransferCancelTest {
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".fixed";
+  private static final long TIMEOUT_MS=5000;
+  private ContentProviderClient client;
+  private StreamProvider provider;
+  private Uri uri;
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue(Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP);
+
+    client=InstrumentationRegistry
+      .getContext()
+      .getContentResolver()
+      .acquireContentProviderClient(AUTHORITY);
+    provider=(StreamProvider)client.getLocalContentProvider();
+    uri=Uri.parse("content://"+AUTHORITY+"/"+
+      StreamProvider.getUriPrefix(AUTHORITY)+"/test-raw");
+  }
+
+  @After
+  public void tearDown() {
+    if (client != null) {
+      client.release();
+    }
+  }
+
+  @Test
+  public void testCancel() throws IOException {
+    ParcelFileDescriptor pfd=provider.openFile(uri, "r");
+    PipeTransfer transfer=awaitTransfer();
+
+    Assert.assertNotNull(transfer);
+    Assert.assertTrue(TransferScheduler.getDefault().cancel(transfer.getId()));
+    Assert.assertTrue(awaitGone(transfer));
+
+    int expected=countBytes(InstrumentationRegistry
+      .getContext().getResources().openRawResource(R.raw.something));
+
+    Assert.assertTrue(countBytes(
+      new ParcelFileDescriptor.AutoCloseInputStream(pfd))<expected);
+  }
+
+  @Test
+  public void testClientClose() throws IOException {
+    ParcelFileDescriptor pfd=provider.openFile(uri, "r");
+    PipeTransfer transfer=awaitTransfer();
+
+    Assert.assertNotNull(transfer);
+    pfd.close();
+    Assert.assertTrue(awaitGone(transfer));
+  }
+
+  private PipeTransfer awaitTransfer() {
+    long deadline=SystemClock.elapsedRealtime()+TIMEOUT_MS;
+
+    while (SystemClock.elapsedRealtime()<deadline) {
+      for (PipeTransfer transfer :
+        TransferScheduler.getDefault().getActiveTransfers()) {
+        if (uri.toString().equals(transfer.getDescription()) &&
+          transfer.isRunning() && transfer.getBytesTransferred()>0) {
+          return(transfer);
+        }
+      }
+
+      SystemClock.sleep(50);
+    }
+
+    return(null);
+  }
+
+  private static boolean awaitGone(PipeTransfer transfer) {
+    long deadline=SystemClock.elapsedRealtime()+TIMEOUT_MS;
+
+    while (SystemClock.elapsedRealtime()<deadline) {
+      if (!TransferScheduler.getDefault().getActiveTransfers().contains(transfer)) {
+        return(true);
+      }
+
+      SystemClock.sleep(50);
+    }
+
+    return(false);
+  }
+
+  private static int countBytes(InputStream in) throws IOException {
+    byte[] buf=new byte[8192];
+    int total=0;
+    int len;
+
+    try {
+      while ((len=in.read(buf))>=0) {
+        total+=len;
+      }
+    }
+    finally {
+      in.close();
+    }
+
+    return(total);
+  }
+}
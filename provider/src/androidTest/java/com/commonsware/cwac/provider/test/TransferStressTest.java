@@ -0,0 +1,115 @@
+/***
+ Copyright (c) 2026 CommonsWare, LLC
+
+ Licensed under the Apache License, Version 2.0 (the "License"); you may
+ not use this file except in compliance with the License. You may obtain
+ a copy of the License at
+ http://www.apache.org/licenses/LICENSE-2.0
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.commonsware.cwac.provider.test;
+
+import android.content.ContentProviderClient;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.commonsware.cwac.provider.StreamProvider;
+import com.commonsware.cwac.provider.TransferScheduler;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens many asset pipes at once, confirming that the transfers
+ * are queued onto a bounded set of threads rather than each
+ * getting a thread of its own, and that every pipe still gets
+ * all of its content. Below API Level 21, transfers are not
+ * bounded, so there is nothing to test.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TransferStressTest {
+  private static final String AUTHORITY=
+    BuildConfig.APPLICATION_ID+".fixed";
+  private static final int PIPES=200;
+
+  @Test
+  public void testBoundedThreads() throws IOException {
+    Assume.assumeTrue(Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP);
+
+    ContentProviderClient client=InstrumentationRegistry
+      .getContext()
+      .getContentResolver()
+      .acquireContentProviderClient(AUTHORITY);
+
+    try {
+      // call openFile() directly, as ContentResolver would use the
+      // AssetFileDescriptor and skip the pipe
+
+      StreamProvider provider=
+        (StreamProvider)client.getLocalContentProvider();
+      Uri uri=Uri.parse("content://"+AUTHORITY+"/"+
+        StreamProvider.getUriPrefix(AUTHORITY)+"/test-asset");
+      List<ParcelFileDescriptor> pipes=new ArrayList<ParcelFileDescriptor>();
+      int expected=countBytes(InstrumentationRegistry
+        .getContext().getAssets().open("ic_launcher.png"));
+
+      for (int i=0;i<PIPES;i++) {
+        pipes.add(provider.openFile(uri, "r"));
+        Assert.assertTrue(countTransferThreads()<=
+          TransferScheduler.DEFAULT_THREADS);
+      }
+
+      for (ParcelFileDescriptor pfd : pipes) {
+        Assert.assertEquals(expected, countBytes(
+          new ParcelFileDescriptor.AutoCloseInputStream(pfd)));
+      }
+
+      Assert.assertTrue(countTransferThreads()<=
+        TransferScheduler.DEFAULT_THREADS);
+    }
+    finally {
+      client.release();
+    }
+  }
+
+  private static int countTransferThreads() {
+    int result=0;
+
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("StreamProvider-transfer-")) {
+        result++;
+      }
+    }
+
+    return(result);
+  }
+
+  private static int countBytes(InputStream in) throws IOException {
+    byte[] buf=new byte[8192];
+    int total=0;
+    int len;
+
+    try {
+      while ((len=in.read(buf))>=0) {
+        total+=len;
+      }
+    }
+    finally {
+      in.close();
+    }
+
+    return(total);
+  }
+}
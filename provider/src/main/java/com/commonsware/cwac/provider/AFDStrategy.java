@@ -14,19 +14,46 @@
 
 package com.commonsware.cwac.provider;
 
+import android.annotation.TargetApi;
 import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
+import android.util.MutableLong;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 
 /**
  * This is a further refinement of AbstractPipeStrategy,
  * for use in cases where subclasses can provide an
  * AssetFileDescriptor on the content
  * (see AssetStrategy, RawResourceStrategy).
+ *
+ * Content stored uncompressed in the APK is just a byte range of
+ * the APK file, so openFile() feeds the pipe from that range using
+ * sendfile(), letting the kernel move the bytes without copying
+ * them through the Java heap.
+ * Compressed content falls back to the stream copy in
+ * AbstractPipeStrategy.
  */
 abstract class AFDStrategy extends AbstractPipeStrategy {
+  /**
+   * Constructor.
+   *
+   * @param mimeResolver maps Uri path segments to MIME types
+   * @param transferScheduler runs the transfers into pipes
+   * @param pipeCapacity requested capacity of each pipe, or 0
+   */
+  AFDStrategy(MimeResolver mimeResolver,
+              TransferScheduler transferScheduler, int pipeCapacity) {
+    super(mimeResolver, transferScheduler, pipeCapacity);
+  }
+
   /**
    * @param uri the Uri of the content
    * @return an AssetFileDescriptor on that content
@@ -55,6 +82,39 @@ abstract class AFDStrategy extends AbstractPipeStrategy {
     return(result);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ParcelFileDescriptor openFile(Uri uri, String mode)
+    throws FileNotFoundException {
+    if ("r".equals(mode)) {
+      AssetFileDescriptor afd=openForTransfer(uri);
+
+      if (afd != null) {
+        ParcelFileDescriptor[] pipe;
+
+        try {
+          pipe=createPipe();
+        }
+        catch (IOException e) {
+          Log.e(getClass().getSimpleName(), "Exception opening pipe", e);
+          closeQuietly(afd);
+
+          throw new FileNotFoundException("Could not open pipe for: "
+              + uri.toString());
+        }
+
+        getTransferScheduler().execute(new ChannelTransferTask(uri, afd,
+          pipe[1]));
+
+        return(pipe[0]);
+      }
+    }
+
+    return(super.openFile(uri, mode));
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -76,4 +136,116 @@ abstract class AFDStrategy extends AbstractPipeStrategy {
       throw new IllegalStateException("Attempted to open uri failed for "+uri.toString(), e);
     }
   }
+
+  /**
+   * @param uri the Uri of the content
+   * @return an AssetFileDescriptor with a known length, or null if
+   * the content cannot be served that way (e.g., it is compressed)
+   */
+  private AssetFileDescriptor openForTransfer(Uri uri) {
+    try {
+      AssetFileDescriptor afd=getAssetFileDescriptor(uri);
+
+      if (afd != null &&
+        afd.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH) {
+        return(afd);
+      }
+
+      closeQuietly(afd);
+    }
+    catch (IOException e) {
+      // most likely compressed, so use the stream instead
+    }
+
+    return(null);
+  }
+
+  private static void closeQuietly(AssetFileDescriptor afd) {
+    if (afd != null) {
+      try {
+        afd.close();
+      }
+      catch (IOException e) {
+        // nothing useful that we can do
+      }
+    }
+  }
+
+  /**
+   * Task used to move the byte range of an AssetFileDescriptor
+   * into the pipe, using sendfile() (or FileChannel.transferTo()
+   * on older devices), so the data does not pass through the Java
+   * heap.
+   */
+  static class ChannelTransferTask extends PipeTransfer {
+    AssetFileDescriptor afd;
+
+    ChannelTransferTask(Uri uri, AssetFileDescriptor afd,
+                        ParcelFileDescriptor sink) {
+      super(uri.toString(), sink);
+      this.afd=afd;
+    }
+
+    @Override
+    void transfer() throws IOException {
+      if (canPoll()) {
+        sendAll();
+      }
+      else {
+        transferAll();
+      }
+    }
+
+    @Override
+    void closeSource() throws IOException {
+      afd.close();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void sendAll() throws IOException {
+      FileDescriptor in=afd.getFileDescriptor();
+      MutableLong position=new MutableLong(afd.getStartOffset());
+      long remaining=afd.getLength();
+
+      while (remaining>0) {
+        long count=sendfile(in, position, remaining);
+
+        if (count<=0) {
+          break;
+        }
+
+        remaining-=count;
+      }
+    }
+
+    /**
+     * Writes block until the client reads, so this moves the
+     * content in chunks, to check for cancellation between them.
+     * The streams are not closed here, as they do not own their
+     * file descriptors; closeSource() and PipeTransfer close those.
+     */
+    private void transferAll() throws IOException {
+      FileChannel src=
+        new FileInputStream(afd.getFileDescriptor()).getChannel();
+      FileChannel dst=
+        new FileOutputStream(getPipe().getFileDescriptor()).getChannel();
+      long position=afd.getStartOffset();
+      long remaining=afd.getLength();
+
+      while (remaining>0) {
+        checkCancelled();
+
+        long count=src.transferTo(position,
+          Math.min(remaining, getChunkSize()), dst);
+
+        if (count<=0) {
+          break;
+        }
+
+        onProgress(count);
+        position+=count;
+        remaining-=count;
+      }
+    }
+  }
 }
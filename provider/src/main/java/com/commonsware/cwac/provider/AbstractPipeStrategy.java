@@ -14,174 +14,134 @@
 
 package com.commonsware.cwac.provider;
 
-import android.content.ContentValues;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
-import android.os.ParcelFileDescriptor.AutoCloseOutputStream;
-import android.util.Log;
-import android.webkit.MimeTypeMap;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 /**
  * StreamStrategy (partial) implementation that is designed for
  * use by things that need a pipe to transfer over the content.
+ * Subclasses supply the content as an InputStream, via
+ * getInputStream(), which is copied into the pipe.
  *
- * The current implementation is limited to read-only content
- * (assets, raw resources, etc.). It could be augmented to support
- * read-write content if/when needed.
+ * Content is read-only by default. Subclasses that can accept
+ * content from clients override canConsume() and consume(); then
+ * opening a Uri for writing gives the client the write end of a
+ * pipe, and consume() reads from the other end on a
+ * TransferScheduler thread, as the content arrives.
  */
-public abstract class AbstractPipeStrategy implements StreamStrategy {
-  /**
-   * @param uri the Uri of the content
-   * @return an InputStream on that content
-   * @throws IOException
-   */
-  abstract InputStream getInputStream(Uri uri) throws IOException;
-
-  /**
-   * {@inheritDoc}
-   */
-  @Override
-  public String getType(Uri uri) {
-    return(MimeTypeMap.getSingleton().getMimeTypeFromExtension(MimeTypeMap.getFileExtensionFromUrl(uri.toString())));
-  }
-
-  /**
-   * {@inheritDoc}
-   */
-  @Override
-  public boolean canInsert(Uri uri) {
-    return(false);
-  }
-
-  /**
-   * {@inheritDoc}
-   */
-  @Override
-  public Uri insert(Uri uri, ContentValues values) {
-    throw new UnsupportedOperationException("Um, this should not have been called");
-  }
+public abstract class AbstractPipeStrategy extends AbstractTransferStrategy {
 
   /**
-   * {@inheritDoc}
+   * Constructor, using the default MimeResolver and
+   * TransferScheduler.
    */
-  @Override
-  public boolean canUpdate(Uri uri) {
-    return(false);
+  public AbstractPipeStrategy() {
+    this(MimeResolver.getDefault());
   }
 
   /**
-   * {@inheritDoc}
+   * Constructor, using the default TransferScheduler.
+   *
+   * @param mimeResolver maps Uri path segments to MIME types
    */
-  @Override
-  public int update(Uri uri, ContentValues values,
-                    String selection, String[] selectionArgs) {
-    throw new UnsupportedOperationException("Um, this should not have been called");
+  public AbstractPipeStrategy(MimeResolver mimeResolver) {
+    this(mimeResolver, TransferScheduler.getDefault());
   }
 
   /**
-   * {@inheritDoc}
+   * Constructor.
+   *
+   * @param mimeResolver maps Uri path segments to MIME types
+   * @param transferScheduler runs the transfers into pipes
    */
-  @Override
-  public boolean canDelete(Uri uri) {
-    return(false);
+  public AbstractPipeStrategy(MimeResolver mimeResolver,
+                              TransferScheduler transferScheduler) {
+    this(mimeResolver, transferScheduler, 0);
   }
 
   /**
-   * {@inheritDoc}
+   * Constructor.
+   *
+   * @param mimeResolver maps Uri path segments to MIME types
+   * @param transferScheduler runs the transfers into pipes
+   * @param pipeCapacity requested capacity of each pipe, in bytes,
+   *                     or 0 for the kernel default (usually 64KB);
+   *                     ignored where the device does not support
+   *                     changing it
    */
-  @Override
-  public void delete(Uri uri) {
-    throw new UnsupportedOperationException("Cannot delete a stream");
+  public AbstractPipeStrategy(MimeResolver mimeResolver,
+                              TransferScheduler transferScheduler,
+                              int pipeCapacity) {
+    super(mimeResolver, transferScheduler, pipeCapacity);
   }
 
   /**
-   * {@inheritDoc}
-   */
-  @Override
-  public ParcelFileDescriptor openFile(Uri uri, String mode)
-    throws FileNotFoundException {
-    if ("r".equals(mode)) {
-      ParcelFileDescriptor[] pipe=null;
-
-      try {
-        pipe=ParcelFileDescriptor.createPipe();
-
-        new TransferOutThread(getInputStream(uri),
-                              new AutoCloseOutputStream(pipe[1])).start();
-      }
-      catch (IOException e) {
-        Log.e(getClass().getSimpleName(), "Exception opening pipe", e);
-
-        throw new FileNotFoundException("Could not open pipe for: "
-            + uri.toString());
-      }
-
-      return(pipe[0]);
-    }
-
-    throw new IllegalArgumentException("Cannot support writing!");
-  }
-
-  /**
-   * {@inheritDoc}
-   */
-  @Override
-  public String getName(Uri uri) {
-    return(uri.getLastPathSegment());
-  }
-
-  /**
-   * {@inheritDoc}
+   * @param uri the Uri of the content
+   * @return an InputStream on that content
+   * @throws IOException
    */
-  @Override
-  public long getLength(Uri uri) {
-    return(-1);
-  }
+  protected abstract InputStream getInputStream(Uri uri)
+    throws IOException;
 
   /**
    * {@inheritDoc}
    */
   @Override
-  public boolean buildUriForFile(Uri.Builder b, File file) {
-    return(false);
+  PipeTransfer buildTransfer(Uri uri, ParcelFileDescriptor sink)
+    throws IOException {
+    return(new TransferOutTask(uri, getInputStream(uri), sink));
   }
 
   /**
-   * Thread used to copy the InputStream contents from
-   * getInputStream() to an OutputStream on the pipe, to transfer
-   * that data to the client of this provider.
+   * Task used to copy the InputStream contents from
+   * getInputStream() into the pipe, to transfer that data to the
+   * client of this provider. Runs on a thread from the
+   * TransferScheduler, using one of its buffers.
    */
-  static class TransferOutThread extends Thread {
+  static class TransferOutTask extends PipeTransfer {
     InputStream in;
-    OutputStream out;
-    byte[] buf=new byte[16384];
 
-    TransferOutThread(InputStream in, OutputStream out) {
+    TransferOutTask(Uri uri, InputStream in, ParcelFileDescriptor sink) {
+      super(uri.toString(), sink);
       this.in=in;
-      this.out=out;
     }
 
+    /**
+     * Fills the buffer before each write, so an InputStream that
+     * returns a bit at a time (e.g., a compressed asset) does not
+     * turn into many small writes.
+     */
     @Override
-    public void run() {
+    void transfer() throws IOException {
+      TransferScheduler scheduler=getScheduler();
+      byte[] buf=scheduler.acquireBuffer(getChunkSize());
+      int filled=0;
       int len;
 
       try {
-        while ((len=in.read(buf)) >= 0) {
-          out.write(buf, 0, len);
+        while ((len=in.read(buf, filled, buf.length-filled)) >= 0) {
+          filled+=len;
+
+          if (filled == buf.length) {
+            write(buf, 0, filled);
+            filled=0;
+          }
         }
 
-        in.close();
-        out.close();
+        if (filled>0) {
+          write(buf, 0, filled);
+        }
       }
-      catch (IOException e) {
-        Log.e(getClass().getSimpleName(),
-              "Exception transferring file", e);
+      finally {
+        scheduler.releaseBuffer(buf);
       }
     }
+
+    @Override
+    void closeSource() throws IOException {
+      in.close();
+    }
   }
 }
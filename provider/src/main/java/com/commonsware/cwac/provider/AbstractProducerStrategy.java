@@ -0,0 +1,128 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * StreamStrategy (partial) implementation for content that is generated on demand,
+ * such as reports or exports. Rather than supplying an
+ * InputStream, subclasses implement produce(), which writes the
+ * content directly into the pipe to the client, on a
+ * TransferScheduler thread. That avoids both the extra copy and
+ * the extra thread of adapting a generator to an InputStream
+ * (e.g., via PipedInputStream).
+ *
+ * produce() is called once per openFile(). If the client stops
+ * reading, writes wait; if the client closes the stream early,
+ * writes throw an IOException, which produce() should let
+ * propagate (after cleaning up, via finally blocks). The pipe is
+ * closed once produce() returns or throws.
+ */
+public abstract class AbstractProducerStrategy
+  extends AbstractTransferStrategy {
+  /**
+   * Constructor, using the default MimeResolver and
+   * TransferScheduler.
+   */
+  public AbstractProducerStrategy() {
+    this(MimeResolver.getDefault(), TransferScheduler.getDefault(), 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param mimeResolver maps Uri path segments to MIME types
+   * @param transferScheduler runs produce()
+   * @param pipeCapacity requested capacity of each pipe, in bytes,
+   *                     or 0 for the kernel default
+   */
+  public AbstractProducerStrategy(MimeResolver mimeResolver,
+                                  TransferScheduler transferScheduler,
+                                  int pipeCapacity) {
+    super(mimeResolver, transferScheduler, pipeCapacity);
+  }
+
+  /**
+   * Writes the content for a Uri. Called on a TransferScheduler
+   * thread, not the thread that called openFile().
+   *
+   * @param uri the Uri of the content
+   * @param out where to write the content
+   * @throws IOException if the content cannot be produced, or the
+   * client went away
+   */
+  protected abstract void produce(Uri uri, ProducerOutputStream out)
+    throws IOException;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean hasAFD(Uri uri) {
+    return(false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public AssetFileDescriptor openAssetFile(Uri uri, String mode)
+    throws FileNotFoundException {
+    throw new UnsupportedOperationException("Produced content is only available via openFile()");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  PipeTransfer buildTransfer(Uri uri, ParcelFileDescriptor sink) {
+    return(new ProducerTask(uri, sink));
+  }
+
+  /**
+   * Task used to call produce() on a thread from the
+   * TransferScheduler.
+   */
+  class ProducerTask extends PipeTransfer {
+    private final Uri uri;
+
+    ProducerTask(Uri uri, ParcelFileDescriptor sink) {
+      super(uri.toString(), sink);
+      this.uri=uri;
+    }
+
+    @Override
+    void transfer() throws IOException {
+      ProducerOutputStream out=new ProducerOutputStream(this);
+
+      try {
+        produce(uri, out);
+      }
+      finally {
+        out.close();
+      }
+    }
+
+    @Override
+    void closeSource() {
+      // produce() cleans up after itself
+    }
+  }
+}
@@ -0,0 +1,323 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * StreamStrategy (partial) implementation for content that moves
+ * through a pipe, with a PipeTransfer on a TransferScheduler thread
+ * at our end. Subclasses say what fills the pipe for a read via
+ * buildTransfer(); this is not meant to be extended directly, so
+ * extend AbstractPipeStrategy, to supply content as an
+ * InputStream, or AbstractProducerStrategy, to write it.
+ *
+ * Content is read-only by default. Subclasses that can accept
+ * content from clients override canConsume() and consume(); then
+ * opening a Uri for writing gives the client the write end of a
+ * pipe, and consume() reads from the other end on a
+ * TransferScheduler thread, as the content arrives.
+ */
+public abstract class AbstractTransferStrategy implements StreamStrategy {
+  private final MimeResolver mimeResolver;
+  private final TransferScheduler transferScheduler;
+  private final int pipeCapacity;
+
+  /**
+   * Constructor.
+   *
+   * @param mimeResolver maps Uri path segments to MIME types
+   * @param transferScheduler runs the transfers into pipes
+   * @param pipeCapacity requested capacity of each pipe, in bytes,
+   *                     or 0 for the kernel default (usually 64KB);
+   *                     ignored where the device does not support
+   *                     changing it
+   */
+  AbstractTransferStrategy(MimeResolver mimeResolver,
+                           TransferScheduler transferScheduler,
+                           int pipeCapacity) {
+    this.mimeResolver=mimeResolver;
+    this.transferScheduler=transferScheduler;
+    this.pipeCapacity=pipeCapacity;
+  }
+
+  /**
+   * Creates the transfer that fills the pipe for openFile().
+   *
+   * @param uri the Uri of the content
+   * @param sink the write end of the pipe
+   * @return the transfer, which closes sink when it is done
+   * @throws IOException if the content cannot be opened
+   */
+  abstract PipeTransfer buildTransfer(Uri uri, ParcelFileDescriptor sink)
+    throws IOException;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getType(Uri uri) {
+    return(mimeResolver.getTypeForName(uri.getEncodedPath()));
+  }
+
+  /**
+   * @return the TransferScheduler supplied to the constructor
+   */
+  TransferScheduler getTransferScheduler() {
+    return(transferScheduler);
+  }
+
+  /**
+   * @return a new pipe, with the capacity supplied to the
+   * constructor, if possible
+   * @throws IOException
+   */
+  ParcelFileDescriptor[] createPipe() throws IOException {
+    return(Pipes.createPipe(pipeCapacity));
+  }
+
+  /**
+   * @return the MimeResolver supplied to the constructor
+   */
+  MimeResolver getMimeResolver() {
+    return(mimeResolver);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean canInsert(Uri uri) {
+    return(false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Uri insert(Uri uri, ContentValues values) {
+    throw new UnsupportedOperationException("Um, this should not have been called");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean canUpdate(Uri uri) {
+    return(false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int update(Uri uri, ContentValues values,
+                    String selection, String[] selectionArgs) {
+    throw new UnsupportedOperationException("Um, this should not have been called");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean canDelete(Uri uri) {
+    return(false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void delete(Uri uri) {
+    throw new UnsupportedOperationException("Cannot delete a stream");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ParcelFileDescriptor openFile(Uri uri, String mode)
+    throws FileNotFoundException {
+    if ("r".equals(mode)) {
+      return(openPipe(uri, false));
+    }
+
+    if (mode.indexOf('r')<0 && canConsume(uri)) {
+      return(openPipe(uri, true));
+    }
+
+    throw new IllegalArgumentException("Cannot support writing!");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getName(Uri uri) {
+    return(uri.getLastPathSegment());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getLength(Uri uri) {
+    return(-1);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean buildUriForFile(Uri.Builder b, File file) {
+    return(false);
+  }
+
+  /**
+   * Override to accept content written by clients, via openFile()
+   * with a write mode (e.g., "w").
+   *
+   * @param uri the Uri being opened for writing
+   * @return true if consume() can handle content for this Uri,
+   * false otherwise
+   */
+  protected boolean canConsume(Uri uri) {
+    return(false);
+  }
+
+  /**
+   * Reads content that a client is writing. Called on a
+   * TransferScheduler thread, not the thread that called
+   * openFile(), once per openFile() for which canConsume() returned
+   * true. Content should be processed as it arrives, rather than
+   * staged first; call abort() on the stream to reject it.
+   *
+   * @param uri the Uri that was opened for writing
+   * @param in the content, which ends when the client closes its
+   *           stream
+   * @throws IOException if the content cannot be read or processed
+   */
+  protected void consume(Uri uri, ConsumerInputStream in)
+    throws IOException {
+    throw new UnsupportedOperationException("Override consume() along with canConsume()");
+  }
+
+  /**
+   * Called on the TransferScheduler thread after consume() returns
+   * or throws.
+   *
+   * @param uri the Uri that was opened for writing
+   * @param byteCount the number of bytes read from the client
+   * @param completed true if consume() returned after reading all
+   *                  of the content and the client finished
+   *                  normally, false if the write was aborted,
+   *                  cancelled, timed out, or failed
+   */
+  protected void onConsumeFinished(Uri uri, long byteCount,
+                                   boolean completed) {
+    // for subclasses to override
+  }
+
+  private ParcelFileDescriptor openPipe(Uri uri, boolean inbound)
+    throws FileNotFoundException {
+    ParcelFileDescriptor[] pipe=null;
+    PipeTransfer transfer;
+
+    try {
+      if (inbound) {
+        pipe=Pipes.createInboundPipe(pipeCapacity);
+        transfer=new ConsumeTask(uri, pipe[0]);
+      }
+      else {
+        pipe=createPipe();
+        transfer=buildTransfer(uri, pipe[1]);
+      }
+    }
+    catch (IOException e) {
+      Log.e(getClass().getSimpleName(), "Exception opening pipe", e);
+
+      if (pipe != null) {
+        closeQuietly(pipe[0]);
+        closeQuietly(pipe[1]);
+      }
+
+      throw new FileNotFoundException("Could not open pipe for: "
+          + uri.toString());
+    }
+
+    transferScheduler.execute(transfer);
+
+    return(inbound ? pipe[1] : pipe[0]);
+  }
+
+  private static void closeQuietly(ParcelFileDescriptor pfd) {
+    try {
+      pfd.close();
+    }
+    catch (IOException e) {
+      // nothing useful that we can do
+    }
+  }
+
+  /**
+   * Task used to hand content that the client writes into the
+   * pipe to consume(), on a thread from the TransferScheduler.
+   * If consume() returns without reading everything, the rest is
+   * rejected, so the client does not think that it all arrived.
+   */
+  class ConsumeTask extends PipeTransfer {
+    private final Uri uri;
+
+    ConsumeTask(Uri uri, ParcelFileDescriptor source) {
+      super(uri.toString(), source);
+      this.uri=uri;
+    }
+
+    @Override
+    void transfer() throws IOException {
+      ConsumerInputStream in=new ConsumerInputStream(this);
+      boolean completed=false;
+
+      try {
+        consume(uri, in);
+        completed=in.isAtEnd() && !isCancelled();
+
+        if (!in.isAtEnd() && !isCancelled()) {
+          abort("Not all content was consumed");
+        }
+      }
+      finally {
+        in.close();
+        onConsumeFinished(uri, in.getByteCount(), completed);
+      }
+    }
+
+    @Override
+    boolean isInbound() {
+      return(true);
+    }
+
+    @Override
+    void closeSource() {
+      // the pipe is our only resource
+    }
+  }
+}
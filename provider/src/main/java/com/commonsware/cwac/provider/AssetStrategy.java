@@ -40,8 +40,13 @@ class AssetStrategy extends AFDStrategy {
    * @param path directory or filename within assets, where all served
    *             assets must reside, or null if we should be
    *             serving everything in assets
+   * @param mimeResolver maps names to MIME types
+   * @param transferScheduler runs the transfers into pipes
+   * @param pipeCapacity requested capacity of each pipe, or 0
    */
-  AssetStrategy(Context ctxt, String path) {
+  AssetStrategy(Context ctxt, String path, MimeResolver mimeResolver,
+                TransferScheduler transferScheduler, int pipeCapacity) {
+    super(mimeResolver, transferScheduler, pipeCapacity);
     this.path=path;
     appContext=ctxt.getApplicationContext();
   }
@@ -50,7 +55,22 @@ class AssetStrategy extends AFDStrategy {
    * {@inheritDoc}
    */
   @Override
-  InputStream getInputStream(Uri uri) throws IOException {
+  public String getType(Uri uri) {
+    // a Uri with just our name serves the asset named by path,
+    // so that is the name that tells us the type
+
+    if (path!=null && uri.getEncodedPath().indexOf('/', 1)<0) {
+      return(getMimeResolver().getTypeForName(path));
+    }
+
+    return(super.getType(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected InputStream getInputStream(Uri uri) throws IOException {
     return(appContext.getAssets().open(getAssetPath(uri)));
   }
 
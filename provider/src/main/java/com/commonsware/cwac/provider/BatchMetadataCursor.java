@@ -0,0 +1,43 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+/**
+ * Cursor for the results of a batch metadata query: one row per
+ * requested Uri, resolved ahead of time by BatchMetadataQuery.
+ */
+final class BatchMetadataCursor extends WindowedRowCursor {
+  private final Object[][] rows;
+
+  /**
+   * Constructor.
+   *
+   * @param columns the column names
+   * @param rows the values of each row, in column order
+   */
+  BatchMetadataCursor(String[] columns, Object[][] rows) {
+    super(columns, rows.length);
+    this.rows=rows;
+    prefill();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void getRow(int row, Object[] values) {
+    System.arraycopy(rows[row], 0, values, 0, values.length);
+  }
+}
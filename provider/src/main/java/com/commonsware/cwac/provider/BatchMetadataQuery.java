@@ -0,0 +1,176 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.net.Uri;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves the metadata columns for many Uris at once, splitting
+ * the Uris into chunks that are resolved in parallel, as most of
+ * the time goes into stat() calls that can overlap.
+ *
+ * A Uri whose metadata cannot be resolved (e.g., it is not served
+ * by any strategy) gets a row of nulls, so one bad Uri does not
+ * fail the whole batch and rows stay aligned with the request.
+ *
+ * Parallel resolution is only used when the values come from
+ * StreamProvider itself. A subclass's getValueForQueryColumn() may
+ * depend on the identity of the caller, which is only available on
+ * the binder thread, so then everything is resolved there.
+ */
+final class BatchMetadataQuery {
+  private static final String TAG="BatchMetadataQuery";
+  private static final int MIN_CHUNK=32;
+  private static final int THREADS=
+    Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private static volatile ThreadPoolExecutor EXECUTOR=null;
+
+  private BatchMetadataQuery() {
+  }
+
+  /**
+   * @param provider the provider supplying the column values
+   * @param projection the columns to return
+   * @param targets the normalized Uris, or null for ones that
+   *                were rejected
+   * @param parallel true if values may be resolved on background
+   *                 threads, false to use only the calling thread
+   * @return a cursor with one row per target, in order
+   */
+  static BatchMetadataCursor run(final StreamProvider provider,
+                                 final String[] projection,
+                                 final Uri[] targets,
+                                 boolean parallel) {
+    final Object[][] rows=new Object[targets.length][];
+    int chunks=(parallel ?
+      Math.min(THREADS, (targets.length+MIN_CHUNK-1)/MIN_CHUNK) : 1);
+
+    if (chunks<=1) {
+      resolve(provider, projection, targets, rows, 0, targets.length);
+    }
+    else {
+      int chunkSize=(targets.length+chunks-1)/chunks;
+      List<Future<Void>> futures=new ArrayList<Future<Void>>();
+
+      // the calling binder thread takes the first chunk itself,
+      // rather than sitting idle waiting for the others
+
+      for (int start=chunkSize;start<targets.length;start+=chunkSize) {
+        final int from=start;
+        final int to=Math.min(start+chunkSize, targets.length);
+
+        futures.add(getExecutor().submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            resolve(provider, projection, targets, rows, from, to);
+
+            return(null);
+          }
+        }));
+      }
+
+      resolve(provider, projection, targets, rows, 0, chunkSize);
+
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted resolving batch", e);
+        }
+        catch (ExecutionException e) {
+          throw new IllegalStateException("Exception resolving batch",
+            e.getCause());
+        }
+      }
+    }
+
+    return(new BatchMetadataCursor(projection, rows));
+  }
+
+  private static void resolve(StreamProvider provider,
+                              String[] projection, Uri[] targets,
+                              Object[][] rows, int from, int to) {
+    RequestScope.begin();
+
+    try {
+      for (int i=from;i<to;i++) {
+        Object[] row=new Object[projection.length];
+
+        if (targets[i] != null) {
+          try {
+            for (int col=0;col<projection.length;col++) {
+              row[col]=provider.getValueForQueryColumn(targets[i],
+                projection[col]);
+            }
+          }
+          catch (RuntimeException e) {
+            Log.w(TAG, "Exception resolving "+targets[i], e);
+            row=new Object[projection.length];
+          }
+        }
+
+        rows[i]=row;
+      }
+    }
+    finally {
+      RequestScope.end();
+    }
+  }
+
+  private static ThreadPoolExecutor getExecutor() {
+    ThreadPoolExecutor result=EXECUTOR;
+
+    if (result == null) {
+      synchronized(BatchMetadataQuery.class) {
+        result=EXECUTOR;
+
+        if (result == null) {
+          result=new ThreadPoolExecutor(THREADS, THREADS, 30,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+              private final AtomicInteger count=new AtomicInteger();
+
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread thread=new Thread(r,
+                  "StreamProvider-batch-"+count.incrementAndGet());
+
+                thread.setDaemon(true);
+
+                return(thread);
+              }
+            });
+          result.allowCoreThreadTimeOut(true);
+          EXECUTOR=result;
+        }
+      }
+    }
+
+    return(result);
+  }
+}
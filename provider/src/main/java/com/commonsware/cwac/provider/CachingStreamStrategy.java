@@ -0,0 +1,580 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * StreamStrategy that wraps another one, copying its content into
+ * files the first time that it is read, so later reads get a real,
+ * seekable file descriptor instead of a one-shot pipe. Worthwhile
+ * for compressed assets and other pipe-based content that clients
+ * want to seek within (e.g., media players, PDF renderers).
+ *
+ * The files live in a directory of their own, limited to a total
+ * size, with the least-recently-used files deleted to stay within
+ * that limit. Files are kept per version of the app, since the
+ * content of assets and resources can change with each install;
+ * files from other versions are deleted on first use.
+ *
+ * The copy happens in openFile() itself, on the binder thread of
+ * the first client to read the content, which does not get its
+ * descriptor until the whole stream has been copied. So, this is
+ * best suited to content that is modest in size, or that clients
+ * read repeatedly; for a one-time read of large content, the
+ * wrapped strategy's pipe gets the client going sooner.
+ *
+ * If several clients open the same content while it is being
+ * copied, they all wait for that one copy. Opening content for
+ * writing, or modifying it via insert(), update(), or delete(),
+ * goes to the wrapped strategy and discards the copy. If that
+ * happens while the copy is still being made, the copy is thrown
+ * away when it is done, and the clients waiting on it start over
+ * with a fresh one.
+ */
+public class CachingStreamStrategy implements StreamStrategy {
+  private static final String TAG="CachingStreamStrategy";
+  private static final String TEMP_SUFFIX=".tmp";
+  private static final int COPY_BUFFER_SIZE=65536;
+  private final Context appContext;
+  private final StreamStrategy delegate;
+  private final File root;
+  private final long maxBytes;
+  private final Object lock=new Object();
+  private final HashMap<String, Fill> fills=new HashMap<String, Fill>();
+  private LinkedHashMap<String, Long> entries=null;
+  private File dir=null;
+  private long totalBytes=0;
+
+  /**
+   * Constructor.
+   *
+   * @param ctxt any Context will do; strategy holds onto
+   *             Application
+   * @param delegate the strategy whose content should be cached
+   * @param root directory for this strategy's files, not shared
+   *             with anything else, as its contents will be
+   *             deleted as needed
+   * @param maxBytes total size of the cached files, beyond which
+   *                 the least-recently-used ones are deleted
+   */
+  public CachingStreamStrategy(Context ctxt, StreamStrategy delegate,
+                               File root, long maxBytes) {
+    this.appContext=ctxt.getApplicationContext();
+    this.delegate=delegate;
+    this.root=root;
+    this.maxBytes=maxBytes;
+  }
+
+  /**
+   * @return the strategy whose content is being cached
+   */
+  public StreamStrategy getDelegate() {
+    return(delegate);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getType(Uri uri) {
+    return(delegate.getType(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean canInsert(Uri uri) {
+    return(delegate.canInsert(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Uri insert(Uri uri, ContentValues values) {
+    Uri result=delegate.insert(uri, values);
+
+    if (result != null) {
+      invalidate(result);
+    }
+
+    return(result);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean canUpdate(Uri uri) {
+    return(delegate.canUpdate(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int update(Uri uri, ContentValues values,
+                    String selection, String[] selectionArgs) {
+    invalidate(uri);
+
+    return(delegate.update(uri, values, selection, selectionArgs));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean canDelete(Uri uri) {
+    return(delegate.canDelete(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void delete(Uri uri) {
+    invalidate(uri);
+    delegate.delete(uri);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ParcelFileDescriptor openFile(Uri uri, String mode)
+    throws FileNotFoundException {
+    if ("r".equals(mode)) {
+      return(ParcelFileDescriptor.open(getCachedFile(uri),
+        ParcelFileDescriptor.MODE_READ_ONLY));
+    }
+
+    invalidate(uri);
+
+    return(delegate.openFile(uri, mode));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getName(Uri uri) {
+    return(delegate.getName(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getLength(Uri uri) {
+    String key=getKey(uri);
+
+    synchronized(lock) {
+      Long result=loadEntries().get(key);
+
+      if (result != null) {
+        return(result);
+      }
+    }
+
+    return(delegate.getLength(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean hasAFD(Uri uri) {
+    return(true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public AssetFileDescriptor openAssetFile(Uri uri, String mode)
+    throws FileNotFoundException {
+    if ("r".equals(mode)) {
+      // UNKNOWN_LENGTH means "the whole file", which is what
+      // ContentResolver.openFileDescriptor() insists upon
+
+      return(new AssetFileDescriptor(openFile(uri, mode), 0,
+        AssetFileDescriptor.UNKNOWN_LENGTH));
+    }
+
+    if (delegate.hasAFD(uri)) {
+      invalidate(uri);
+
+      return(delegate.openAssetFile(uri, mode));
+    }
+
+    return(new AssetFileDescriptor(openFile(uri, mode), 0,
+      AssetFileDescriptor.UNKNOWN_LENGTH));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean buildUriForFile(Uri.Builder b, File file) {
+    return(delegate.buildUriForFile(b, file));
+  }
+
+  /**
+   * Returns the cached copy of the content, copying it from the
+   * wrapped strategy first if needed, or waiting for another
+   * thread that is already doing that.
+   *
+   * @param uri the Uri of the content
+   * @return the cached copy
+   * @throws FileNotFoundException if the content could not be
+   * copied
+   */
+  private File getCachedFile(Uri uri) throws FileNotFoundException {
+    File result=null;
+
+    while (result == null) {
+      result=getCachedFile(uri, getKey(uri));
+    }
+
+    return(result);
+  }
+
+  /**
+   * Makes one attempt at getCachedFile().
+   *
+   * @return the cached copy, or null if the copy was invalidated
+   * while it was being made, and so should be tried again
+   */
+  private File getCachedFile(Uri uri, String key)
+    throws FileNotFoundException {
+    Fill fill;
+    boolean filling=false;
+
+    synchronized(lock) {
+      LinkedHashMap<String, Long> index=loadEntries();
+      File file=new File(dir, key);
+
+      if (index.get(key) != null) {
+        if (file.exists()) {
+          file.setLastModified(System.currentTimeMillis());
+
+          return(file);
+        }
+
+        totalBytes-=index.remove(key);
+      }
+
+      fill=fills.get(key);
+
+      if (fill == null) {
+        fill=new Fill(file);
+        fills.put(key, fill);
+        filling=true;
+      }
+    }
+
+    if (filling) {
+      IOException error=null;
+      long size=-1;
+
+      try {
+        size=copy(uri, fill.file);
+      }
+      catch (IOException e) {
+        error=e;
+      }
+      catch (RuntimeException e) {
+        // the waiting threads still need to hear about it
+
+        error=new IOException("Could not copy "+uri, e);
+      }
+
+      synchronized(lock) {
+        fills.remove(key);
+
+        if (fill.invalidated) {
+          // the content changed while we were copying it
+          fill.file.delete();
+        }
+        else if (error == null) {
+          entries.put(key, size);
+          totalBytes+=size;
+          trim(key);
+        }
+      }
+
+      fill.finish(error);
+    }
+
+    File result=fill.await();
+
+    return(fill.invalidated ? null : result);
+  }
+
+  private long copy(Uri uri, File file) throws IOException {
+    File temp=new File(dir, file.getName()+TEMP_SUFFIX);
+
+    dir.mkdirs();
+
+    InputStream in=new ParcelFileDescriptor.AutoCloseInputStream(
+      delegate.openFile(uri, "r"));
+    long result=0;
+
+    try {
+      FileOutputStream out=new FileOutputStream(temp);
+
+      try {
+        byte[] buf=new byte[COPY_BUFFER_SIZE];
+        int len;
+
+        while ((len=in.read(buf))>=0) {
+          out.write(buf, 0, len);
+          result+=len;
+        }
+
+        // so a crash cannot leave a truncated file under the real name
+
+        out.getFD().sync();
+      }
+      finally {
+        out.close();
+      }
+
+      if (!temp.renameTo(file)) {
+        throw new IOException("Could not rename "+temp+" to "+file);
+      }
+    }
+    finally {
+      in.close();
+      temp.delete();
+    }
+
+    return(result);
+  }
+
+  /**
+   * Discards the cached copy of some content, if there is one. A
+   * copy that is in progress is discarded once it is finished.
+   */
+  private void invalidate(Uri uri) {
+    String key=getKey(uri);
+
+    synchronized(lock) {
+      Fill fill=fills.get(key);
+
+      if (fill != null) {
+        fill.invalidated=true;
+      }
+
+      Long size=loadEntries().remove(key);
+
+      if (size != null) {
+        totalBytes-=size;
+        new File(dir, key).delete();
+      }
+    }
+  }
+
+  /**
+   * Deletes least-recently-used files until the total size is
+   * within bounds. Must be called while holding the lock.
+   *
+   * @param keep key of a file not to delete (the one just added)
+   */
+  private void trim(String keep) {
+    Iterator<Map.Entry<String, Long>> i=entries.entrySet().iterator();
+
+    while (totalBytes>maxBytes && i.hasNext()) {
+      Map.Entry<String, Long> entry=i.next();
+
+      if (!entry.getKey().equals(keep)) {
+        // clients that already have the file open can keep
+        // reading it; the space comes back when they close it
+
+        new File(dir, entry.getKey()).delete();
+        totalBytes-=entry.getValue();
+        i.remove();
+      }
+    }
+  }
+
+  /**
+   * Builds the index of cached files from the directory, the first
+   * time it is needed, deleting the files for other versions of
+   * the app and any partial copies. Must be called while holding
+   * the lock.
+   *
+   * @return the index, in least-recently-used order
+   */
+  private LinkedHashMap<String, Long> loadEntries() {
+    if (entries == null) {
+      entries=new LinkedHashMap<String, Long>(16, 0.75f, true);
+      dir=new File(root, getVersionKey());
+
+      File[] versions=root.listFiles();
+
+      if (versions != null) {
+        for (File version : versions) {
+          if (!version.equals(dir)) {
+            deleteRecursively(version);
+          }
+        }
+      }
+
+      dir.mkdirs();
+
+      File[] files=dir.listFiles();
+
+      if (files != null) {
+        Arrays.sort(files, new Comparator<File>() {
+          @Override
+          public int compare(File lhs, File rhs) {
+            long left=lhs.lastModified();
+            long right=rhs.lastModified();
+
+            return(left<right ? -1 : (left == right ? 0 : 1));
+          }
+        });
+
+        for (File file : files) {
+          if (file.getName().endsWith(TEMP_SUFFIX)) {
+            file.delete();
+          }
+          else {
+            entries.put(file.getName(), file.length());
+            totalBytes+=file.length();
+          }
+        }
+      }
+
+      trim(null);
+    }
+
+    return(entries);
+  }
+
+  private String getVersionKey() {
+    try {
+      PackageInfo info=appContext.getPackageManager()
+        .getPackageInfo(appContext.getPackageName(), 0);
+
+      return(info.versionCode+"-"+info.lastUpdateTime);
+    }
+    catch (PackageManager.NameNotFoundException e) {
+      Log.w(TAG, "Could not find our own package", e);
+
+      return("0");
+    }
+  }
+
+  private static String getKey(Uri uri) {
+    try {
+      byte[] digest=MessageDigest.getInstance("SHA-1")
+        .digest(uri.getEncodedPath().getBytes("UTF-8"));
+      StringBuilder result=new StringBuilder(digest.length*2);
+
+      for (byte b : digest) {
+        result.append(Character.forDigit((b>>4) & 0xF, 16));
+        result.append(Character.forDigit(b & 0xF, 16));
+      }
+
+      return(result.toString());
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not available", e);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 is not available", e);
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children=file.listFiles();
+
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+
+    file.delete();
+  }
+
+  /**
+   * One copy of content into the cache, which other threads
+   * wanting the same content wait on.
+   */
+  private static class Fill {
+    final File file;
+    private final CountDownLatch done=new CountDownLatch(1);
+    private volatile IOException error=null;
+    volatile boolean invalidated=false;
+
+    Fill(File file) {
+      this.file=file;
+    }
+
+    void finish(IOException error) {
+      this.error=error;
+      done.countDown();
+    }
+
+    File await() throws FileNotFoundException {
+      try {
+        done.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+
+        throw new FileNotFoundException("Interrupted waiting for "+file);
+      }
+
+      if (error != null) {
+        FileNotFoundException result=
+          new FileNotFoundException("Could not cache "+file);
+
+        result.initCause(error);
+
+        throw result;
+      }
+
+      return(file);
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+/**
+ * Interface implemented by classes that stream-provider-paths.gradle
+ * generates from a paths XML resource at build time. Naming such a
+ * class in the STREAM_PROVIDER_PATHS_CLASS meta-data lets
+ * StreamProvider skip parsing and validating the XML at startup.
+ *
+ * Implementations need a public zero-argument constructor.
+ */
+public interface CompiledPaths {
+  /**
+   * @return one descriptor per child element of <paths>, already
+   * validated
+   */
+  StrategyDescriptor[] getDescriptors();
+}
@@ -16,12 +16,16 @@ package com.commonsware.cwac.provider;
 
 import android.content.ContentValues;
 import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * Implementation of the composite pattern for a collection
@@ -30,6 +34,7 @@ import java.util.Map;
 public class CompositeStreamStrategy implements StreamStrategy {
   private Map<String, StreamStrategy> strategies=
       new HashMap<String, StreamStrategy>();
+  private volatile Index index=null;
 
   /**
    * Adds a strategy to be considered.
@@ -40,6 +45,23 @@ public class CompositeStreamStrategy implements StreamStrategy {
    */
   void add(String name, StreamStrategy strategy) {
     strategies.put(name, strategy);
+    index=null;
+  }
+
+  /**
+   * Builds the routing tables used by getStrategy() and
+   * buildUriForFile(). Called by StreamProvider once all
+   * strategies have been added; if not called, the tables are
+   * built on first use.
+   *
+   * @return the newly-built routing tables
+   */
+  Index buildRouter() {
+    Index result=new Index(strategies);
+
+    index=result;
+
+    return(result);
   }
 
   /**
@@ -223,13 +245,57 @@ public class CompositeStreamStrategy implements StreamStrategy {
    */
   @Override
   public boolean buildUriForFile(Uri.Builder b, File file) {
-    for (StreamStrategy strategy : strategies.values()) {
-      if (strategy.buildUriForFile(b, file)) {
-        return(true);
+    return(getCompleteIndex().buildUriForFile(b, file));
+  }
+
+  /**
+   * @return routing tables covering every strategy, building any
+   * lazy strategies that have not been built yet, as finding the
+   * longest match for a file needs every root
+   */
+  Index getCompleteIndex() {
+    Index current=getIndex();
+
+    if (current.hasUnbuilt) {
+      for (StreamStrategy strategy : current.unindexed) {
+        if (strategy instanceof LazyStreamStrategy) {
+          ((LazyStreamStrategy)strategy).get();
+        }
       }
+
+      current=buildRouter();
     }
 
-    return(false);
+    return(current);
+  }
+
+  /**
+   * Lists the contents of a directory, if the Uri points to one
+   * that is served by a LocalPathStrategy.
+   *
+   * @param uri the normalized Uri for the content
+   * @param original the Uri as supplied by the client, used to
+   *                 build the Uris of the children
+   * @param projection the columns to return, or null for the
+   *                   defaults
+   * @param sortOrder the sort order and limit, or null
+   * @return a Cursor with one row per child, or null if the Uri
+   * does not point to a directory
+   */
+  Cursor queryDirectory(Uri uri, Uri original, String[] projection,
+                        String sortOrder) {
+    StreamStrategy strategy=getStrategy(uri);
+
+    if (strategy instanceof LazyStreamStrategy) {
+      strategy=((LazyStreamStrategy)strategy).get();
+    }
+
+    if (strategy instanceof LocalPathStrategy) {
+      return(((LocalPathStrategy)strategy).queryDirectory(uri, original,
+        projection, sortOrder));
+    }
+
+    return(null);
   }
 
   /**
@@ -242,23 +308,111 @@ public class CompositeStreamStrategy implements StreamStrategy {
    */
   public StreamStrategy getStrategy(Uri uri)
     throws IllegalArgumentException {
-    String path=uri.getPath();
-    Map.Entry<String, StreamStrategy> best=null;
-
-    for (Map.Entry<String, StreamStrategy> entry : strategies.entrySet()) {
-      if (path.startsWith("/"+entry.getKey())) {
-        if (best == null
-            || best.getKey().length() < entry.getKey().length()) {
-          best=entry;
-        }
-      }
-    }
+    StreamStrategy best=
+      getIndex().routes.findLongestPrefix(uri.getPath(), 0, (char)0);
 
     if (best == null) {
       throw new IllegalArgumentException("Unable to find configured strategy for "
                                              + uri);
     }
 
-    return(best.getValue());
+    return(best);
+  }
+
+  private Index getIndex() {
+    Index current=index;
+
+    if (current==null) {
+      current=buildRouter();
+    }
+
+    return(current);
+  }
+
+  /**
+   * Immutable snapshot of the lookup structures derived from
+   * the configured strategies: the Uri router, keyed by
+   * "/"+name, and the reverse index of LocalPathStrategy
+   * roots, keyed by canonical path. Strategies that cannot be
+   * indexed are tried, in name order, when the reverse index
+   * comes up empty, so results do not depend on HashMap
+   * iteration order. Lazy strategies that have been built are
+   * indexed by their real strategy, so an index without unbuilt
+   * strategies holds no references to the provider that built
+   * them.
+   */
+  static final class Index {
+    final PrefixTrie<StreamStrategy> routes=
+      new PrefixTrie<StreamStrategy>();
+    final PrefixTrie<LocalPathStrategy> roots=
+      new PrefixTrie<LocalPathStrategy>();
+    final StreamStrategy[] unindexed;
+    final boolean hasUnbuilt;
+
+    Index(Map<String, StreamStrategy> strategies) {
+      ArrayList<StreamStrategy> others=new ArrayList<StreamStrategy>();
+      boolean unbuilt=false;
+
+      for (String name : new TreeSet<String>(strategies.keySet())) {
+        StreamStrategy strategy=strategies.get(name);
+
+        if (strategy instanceof LazyStreamStrategy) {
+          StreamStrategy built=((LazyStreamStrategy)strategy).peek();
+
+          if (built == null) {
+            unbuilt=true;
+          }
+          else {
+            strategy=built;
+          }
+        }
+
+        routes.put("/"+name, strategy);
+
+        if (strategy instanceof LocalPathStrategy) {
+          LocalPathStrategy local=(LocalPathStrategy)strategy;
+
+          roots.put(local.getRoot().getPath(), local);
+        }
+        else {
+          others.add(strategy);
+        }
+      }
+
+      unindexed=others.toArray(new StreamStrategy[others.size()]);
+      hasUnbuilt=unbuilt;
+    }
+
+    /**
+     * Implements buildUriForFile() for an index without unbuilt
+     * strategies.
+     */
+    boolean buildUriForFile(Uri.Builder b, File file) {
+      if (roots.size()>0) {
+        String fpath;
+
+        try {
+          fpath=file.getCanonicalPath();
+        }
+        catch (IOException e) {
+          throw new
+            IllegalArgumentException("Invalid file: "+file.toString(), e);
+        }
+
+        LocalPathStrategy owner=roots.findLongestPrefix(fpath, 0, '/');
+
+        if (owner!=null && owner.buildUriForCanonicalPath(b, fpath)) {
+          return(true);
+        }
+      }
+
+      for (StreamStrategy strategy : unindexed) {
+        if (strategy.buildUriForFile(b, file)) {
+          return(true);
+        }
+      }
+
+      return(false);
+    }
   }
 }
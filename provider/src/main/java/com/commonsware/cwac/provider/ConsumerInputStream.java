@@ -0,0 +1,170 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * What AbstractTransferStrategy.consume() reads content from: the read
+ * end of a pipe that the client is writing to. Reads are buffered,
+ * a chunk sized to the pipe's capacity at a time, so reading a few
+ * bytes at a time does not mean a system call each time.
+ *
+ * read() returns -1 once the client closes its end of the pipe.
+ * On API Level 19+, if the client crashed or reported an error
+ * instead, read() throws an IOException, so partial content is not
+ * mistaken for complete content. Call abort() to stop accepting
+ * content; the client's writes then fail.
+ */
+public final class ConsumerInputStream extends InputStream {
+  private final PipeTransfer transfer;
+  private final byte[] one=new byte[1];
+  private byte[] buffer=null;
+  private int position=0;
+  private int limit=0;
+  private boolean atEnd=false;
+  private boolean closed=false;
+
+  ConsumerInputStream(PipeTransfer transfer) {
+    this.transfer=transfer;
+  }
+
+  /**
+   * @return the number of bytes returned by read() so far
+   */
+  public long getByteCount() {
+    return(transfer.getBytesTransferred()-(limit-position));
+  }
+
+  /**
+   * @return true if all of the content has been read, and the
+   * client finished writing normally
+   */
+  public boolean isAtEnd() {
+    return(atEnd && position == limit);
+  }
+
+  /**
+   * Stops accepting content. The client's writes fail, and on API
+   * Level 19+, the client can get the reason via
+   * ParcelFileDescriptor.checkError().
+   *
+   * @param reason why the content is being rejected
+   */
+  public void abort(String reason) {
+    transfer.abort(reason);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int read() throws IOException {
+    return(read(one, 0, 1)<0 ? -1 : one[0] & 0xFF);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int read(byte[] buf, int offset, int count) throws IOException {
+    checkOpen();
+
+    if (count == 0) {
+      return(0);
+    }
+
+    if (position == limit) {
+      if (atEnd) {
+        return(-1);
+      }
+
+      // big reads skip the buffer, rather than copying through it
+
+      if (count>=transfer.getChunkSize()) {
+        int result=transfer.read(buf, offset, count);
+
+        if (result<0) {
+          atEnd=true;
+        }
+
+        return(result);
+      }
+
+      if (!fill()) {
+        return(-1);
+      }
+    }
+
+    int result=Math.min(count, limit-position);
+
+    System.arraycopy(buffer, position, buf, offset, result);
+    position+=result;
+
+    return(result);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int available() {
+    return(limit-position);
+  }
+
+  /**
+   * Stops further reads. The pipe itself is closed when consume()
+   * returns, whether or not this is called.
+   */
+  @Override
+  public void close() {
+    if (!closed) {
+      closed=true;
+
+      if (buffer != null) {
+        transfer.getScheduler().releaseBuffer(buffer);
+        buffer=null;
+      }
+    }
+  }
+
+  private boolean fill() throws IOException {
+    if (buffer == null) {
+      buffer=transfer.getScheduler().acquireBuffer(transfer.getChunkSize());
+    }
+
+    int count=transfer.read(buffer, 0, buffer.length);
+
+    if (count<0) {
+      atEnd=true;
+      position=0;
+      limit=0;
+
+      return(false);
+    }
+
+    position=0;
+    limit=count;
+
+    return(true);
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
@@ -0,0 +1,298 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.OpenableColumns;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cursor listing the contents of a directory served by a
+ * LocalPathStrategy, one row per child.
+ *
+ * Only the child names are read up front (no File objects and no
+ * stat() calls), unless the client sorts by size. Everything else
+ * about a child, including its size and Uri, is worked out only
+ * when its row lands in the window that the client is reading.
+ *
+ * A child that is a symlink to something outside of the
+ * strategy's root cannot be opened, so its SIZE is reported as
+ * null, rather than the size of whatever it points to.
+ *
+ * The sort order may be a column (DISPLAY_NAME or SIZE) with an
+ * optional ASC or DESC, followed by an optional LIMIT clause, in
+ * SQLite syntax: "_size DESC LIMIT 50 OFFSET 100".
+ */
+final class DirectoryCursor extends WindowedRowCursor {
+  static final String[] DEFAULT_COLUMNS={
+    OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE,
+    StreamProvider.COLUMN_URI };
+  private static final Pattern SORT_ORDER=Pattern.compile(
+    "^\\s*(?:(\\w+)(?:\\s+(ASC|DESC))?)?"+
+      "\\s*(?:LIMIT\\s+(\\d+)(?:\\s*,\\s*(\\d+)|\\s+OFFSET\\s+(\\d+))?)?\\s*$",
+    Pattern.CASE_INSENSITIVE);
+  private static final int COL_OTHER=0;
+  private static final int COL_ID=1;
+  private static final int COL_NAME=2;
+  private static final int COL_SIZE=3;
+  private static final int COL_URI=4;
+  private static final long UNKNOWN_SIZE=-1;
+
+  private final File dir;
+  private final File root;
+  private final Uri base;
+  private final String[] names;
+  private final long[] sizes;
+  private final int offset;
+  private final int[] kinds;
+
+  /**
+   * Lists a directory.
+   *
+   * @param dir the directory
+   * @param root the canonical root of the strategy serving the
+   *             directory, outside of which children are not
+   *             reported on
+   * @param base the Uri of the directory, as the client supplied it,
+   *             used to build the Uris of the children
+   * @param projection the columns to return, or null for the
+   *                   defaults
+   * @param sortOrder the sort order and limit, or null
+   * @return the cursor
+   */
+  static DirectoryCursor create(File dir, File root, Uri base,
+                                String[] projection, String sortOrder) {
+    String sortColumn=null;
+    boolean descending=false;
+    int limit=Integer.MAX_VALUE;
+    int offset=0;
+
+    if (sortOrder != null) {
+      Matcher m=SORT_ORDER.matcher(sortOrder);
+
+      if (!m.matches()) {
+        throw new IllegalArgumentException("Unsupported sort order: "+sortOrder);
+      }
+
+      sortColumn=m.group(1);
+      descending=m.group(2) != null &&
+        "DESC".equals(m.group(2).toUpperCase(Locale.US));
+
+      if (m.group(3) != null) {
+        if (m.group(4) != null) {
+          // LIMIT offset, count
+          offset=parseCount(m.group(3));
+          limit=parseCount(m.group(4));
+        }
+        else {
+          limit=parseCount(m.group(3));
+
+          if (m.group(5) != null) {
+            offset=parseCount(m.group(5));
+          }
+        }
+      }
+    }
+
+    String[] names=dir.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return(!PendingInsert.isTempName(name));
+      }
+    });
+    long[] sizes=null;
+
+    if (names == null) {
+      names=new String[0];
+    }
+
+    if (sortColumn == null) {
+      // leave them in directory order
+    }
+    else if (OpenableColumns.DISPLAY_NAME.equalsIgnoreCase(sortColumn)) {
+      Arrays.sort(names);
+
+      if (descending) {
+        reverse(names);
+      }
+    }
+    else if (OpenableColumns.SIZE.equalsIgnoreCase(sortColumn)) {
+      sizes=sortBySize(dir, root, names, descending);
+    }
+    else {
+      throw new IllegalArgumentException("Unsupported sort column: "+sortColumn);
+    }
+
+    int start=Math.min(offset, names.length);
+    int count=(int)Math.min((long)limit, (long)(names.length-start));
+
+    return(new DirectoryCursor(projection == null ? DEFAULT_COLUMNS : projection,
+      dir, root, base, names, sizes, start, count));
+  }
+
+  private DirectoryCursor(String[] columns, File dir, File root,
+                          Uri base, String[] names, long[] sizes,
+                          int offset, int count) {
+    super(columns, count);
+    this.dir=dir;
+    this.root=root;
+    this.base=base;
+    this.names=names;
+    this.sizes=sizes;
+    this.offset=offset;
+    this.kinds=new int[columns.length];
+
+    for (int i=0;i<columns.length;i++) {
+      String col=columns[i];
+
+      if (OpenableColumns.DISPLAY_NAME.equals(col)) {
+        kinds[i]=COL_NAME;
+      }
+      else if (OpenableColumns.SIZE.equals(col)) {
+        kinds[i]=COL_SIZE;
+      }
+      else if (StreamProvider.COLUMN_URI.equals(col)) {
+        kinds[i]=COL_URI;
+      }
+      else if (BaseColumns._ID.equals(col)) {
+        kinds[i]=COL_ID;
+      }
+      else {
+        kinds[i]=COL_OTHER;
+      }
+    }
+
+    prefill();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void getRow(int row, Object[] values) {
+    int index=offset+row;
+    String name=names[index];
+
+    for (int i=0;i<kinds.length;i++) {
+      switch (kinds[i]) {
+        case COL_ID:
+          values[i]=(long)index;
+          break;
+
+        case COL_NAME:
+          values[i]=name;
+          break;
+
+        case COL_SIZE:
+          long size=(sizes == null ? sizeOf(dir, root, name) : sizes[index]);
+
+          values[i]=(size == UNKNOWN_SIZE ? null : size);
+          break;
+
+        case COL_URI:
+          values[i]=base.buildUpon().appendPath(name).build().toString();
+          break;
+
+        default:
+          values[i]=null;
+      }
+    }
+  }
+
+  /**
+   * @return the size of the child, or UNKNOWN_SIZE if it resolves
+   * to something outside of the root (e.g., via a symlink)
+   */
+  private static long sizeOf(File dir, File root, String name) {
+    File child=new File(dir, name);
+
+    try {
+      if (!LocalPathStrategy.isUnder(child.getCanonicalPath(), root)) {
+        return(UNKNOWN_SIZE);
+      }
+    }
+    catch (IOException e) {
+      return(UNKNOWN_SIZE);
+    }
+
+    return(child.length());
+  }
+
+  private static long[] sortBySize(File dir, File root, String[] names,
+                                   final boolean descending) {
+    Child[] children=new Child[names.length];
+    long[] result=new long[names.length];
+
+    for (int i=0;i<names.length;i++) {
+      children[i]=new Child(names[i], sizeOf(dir, root, names[i]));
+    }
+
+    Arrays.sort(children, new Comparator<Child>() {
+      @Override
+      public int compare(Child lhs, Child rhs) {
+        int result=(lhs.size<rhs.size ? -1 : (lhs.size==rhs.size ? 0 : 1));
+
+        if (result==0) {
+          result=lhs.name.compareTo(rhs.name);
+        }
+
+        return(descending ? -result : result);
+      }
+    });
+
+    for (int i=0;i<children.length;i++) {
+      names[i]=children[i].name;
+      result[i]=children[i].size;
+    }
+
+    return(result);
+  }
+
+  private static void reverse(String[] names) {
+    for (int i=0, j=names.length-1;i<j;i++, j--) {
+      String temp=names[i];
+
+      names[i]=names[j];
+      names[j]=temp;
+    }
+  }
+
+  private static int parseCount(String value) {
+    try {
+      return(Integer.parseInt(value));
+    }
+    catch (NumberFormatException e) {
+      return(Integer.MAX_VALUE);
+    }
+  }
+
+  private static final class Child {
+    final String name;
+    final long size;
+
+    Child(String name, long size) {
+      this.name=name;
+      this.size=size;
+    }
+  }
+}
@@ -0,0 +1,313 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.os.FileObserver;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of ResolvedFile objects for one
+ * LocalPathStrategy, so repeated queries for the same Uri skip
+ * canonicalization and stat() entirely. Entries, including those
+ * for files that do not exist, are keyed by the encoded Uri path
+ * and invalidated by a FileObserver on the file's directory.
+ * When a directory cannot be watched (e.g., it does not exist
+ * yet), entries in it are re-checked against a fresh stat() of
+ * the file on each hit, comparing size and modification time.
+ * Several Uri paths can lead to the same file (e.g., via encoding
+ * differences or symlinks), so invalidating a file drops every
+ * entry that resolved to it.
+ */
+final class FileMetadataCache {
+  private static final int EVENTS=FileObserver.CREATE |
+    FileObserver.DELETE | FileObserver.MODIFY | FileObserver.ATTRIB |
+    FileObserver.CLOSE_WRITE | FileObserver.MOVED_FROM |
+    FileObserver.MOVED_TO | FileObserver.DELETE_SELF |
+    FileObserver.MOVE_SELF;
+
+  private final int maxEntries;
+  private final LinkedHashMap<String, Entry> entries;
+  private final HashMap<String, HashSet<String>> keysByPath=
+    new HashMap<String, HashSet<String>>();
+  private final HashMap<String, DirWatch> watches=
+    new HashMap<String, DirWatch>();
+  private long hits=0;
+  private long misses=0;
+
+  /**
+   * Constructor.
+   *
+   * @param maxEntries the most entries to hold before evicting
+   *                   the least-recently-used one
+   */
+  FileMetadataCache(int maxEntries) {
+    this.maxEntries=maxEntries;
+    entries=new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        if (size()>FileMetadataCache.this.maxEntries) {
+          forget(eldest.getValue());
+
+          return(true);
+        }
+
+        return(false);
+      }
+    };
+  }
+
+  /**
+   * @param key the encoded path of the Uri
+   * @return the cached ResolvedFile, or null if there is none (or
+   * the one we had is stale)
+   */
+  ResolvedFile get(String key) {
+    Entry entry;
+
+    synchronized(this) {
+      entry=entries.get(key);
+
+      if (entry!=null && entry.watch!=null) {
+        hits++;
+
+        return(entry.resolved);
+      }
+    }
+
+    if (entry!=null) {
+      ResolvedFile fresh=new ResolvedFile(entry.resolved.file).statNow();
+
+      synchronized(this) {
+        if (fresh.sameStatAs(entry.resolved)) {
+          hits++;
+
+          return(entry.resolved);
+        }
+
+        if (entries.get(key)==entry) {
+          entries.remove(key);
+          forget(entry);
+        }
+      }
+    }
+
+    synchronized(this) {
+      misses++;
+    }
+
+    return(null);
+  }
+
+  /**
+   * Starts watching the directory for the file, if we are not
+   * already, so that changes made while the caller is stat()-ing
+   * the file are not missed.
+   *
+   * @param file the canonical file about to be cached
+   * @return a token to pass to put()
+   */
+  synchronized Object prepare(File file) {
+    String dir=file.getParent();
+    DirWatch watch=(dir==null ? null : watches.get(dir));
+
+    if (watch==null && dir!=null && new File(dir).isDirectory()) {
+      watch=new DirWatch(dir);
+      watches.put(dir, watch);
+      watch.startWatching();
+    }
+
+    return(watch==null ? null : new Token(watch, watch.generation));
+  }
+
+  /**
+   * Caches a ResolvedFile, unless its directory changed since
+   * prepare() was called.
+   *
+   * @param key the encoded path of the Uri
+   * @param resolved the ResolvedFile, already stat()-ed
+   * @param token the value returned by prepare()
+   */
+  synchronized void put(String key, ResolvedFile resolved, Object token) {
+    DirWatch watch=null;
+
+    if (token!=null) {
+      Token t=(Token)token;
+
+      if (t.watch.generation!=t.generation || !t.watch.active) {
+        // prepare() may have started this watch just for us, and
+        // with no entry holding it, nothing else would stop it
+        if (t.watch.refs<=0 && t.watch.active) {
+          t.watch.stop();
+        }
+
+        return;
+      }
+
+      watch=t.watch;
+    }
+
+    Entry old=entries.remove(key);
+
+    if (old!=null) {
+      forget(old);
+    }
+
+    Entry entry=new Entry(key, resolved, watch);
+    HashSet<String> keys=keysByPath.get(resolved.file.getPath());
+
+    if (watch!=null) {
+      watch.refs++;
+    }
+
+    if (keys==null) {
+      keys=new HashSet<String>();
+      keysByPath.put(resolved.file.getPath(), keys);
+    }
+
+    keys.add(key);
+    entries.put(key, entry);
+  }
+
+  /**
+   * Drops any entry for this file, such as after we delete it.
+   *
+   * @param file the canonical file
+   */
+  synchronized void invalidate(File file) {
+    HashSet<String> keys=keysByPath.get(file.getPath());
+
+    if (keys!=null) {
+      // forget() changes the set, so work from a copy
+      for (String key : new ArrayList<String>(keys)) {
+        Entry entry=entries.remove(key);
+
+        if (entry!=null) {
+          forget(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of lookups satisfied from the cache
+   */
+  synchronized long getHitCount() {
+    return(hits);
+  }
+
+  /**
+   * @return the number of lookups that were not
+   */
+  synchronized long getMissCount() {
+    return(misses);
+  }
+
+  private void forget(Entry entry) {
+    String path=entry.resolved.file.getPath();
+    HashSet<String> keys=keysByPath.get(path);
+
+    if (keys!=null) {
+      keys.remove(entry.key);
+
+      if (keys.isEmpty()) {
+        keysByPath.remove(path);
+      }
+    }
+
+    if (entry.watch!=null && --entry.watch.refs<=0 &&
+      entry.watch.active) {
+      entry.watch.stop();
+    }
+  }
+
+  private synchronized void onDirEvent(DirWatch watch, int event,
+                                       String child) {
+    watch.generation++;
+
+    if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF))!=0
+      || child==null) {
+      String prefix=watch.dir+"/";
+      Iterator<Entry> i=entries.values().iterator();
+
+      while (i.hasNext()) {
+        Entry entry=i.next();
+
+        if (entry.watch==watch ||
+          entry.resolved.file.getPath().startsWith(prefix)) {
+          i.remove();
+          forget(entry);
+        }
+      }
+
+      if (watch.active) {
+        watch.stop();
+      }
+    }
+    else {
+      invalidate(new File(watch.dir, child));
+    }
+  }
+
+  private static final class Entry {
+    final String key;
+    final ResolvedFile resolved;
+    final DirWatch watch;
+
+    Entry(String key, ResolvedFile resolved, DirWatch watch) {
+      this.key=key;
+      this.resolved=resolved;
+      this.watch=watch;
+    }
+  }
+
+  private static final class Token {
+    final DirWatch watch;
+    final long generation;
+
+    Token(DirWatch watch, long generation) {
+      this.watch=watch;
+      this.generation=generation;
+    }
+  }
+
+  private final class DirWatch extends FileObserver {
+    final String dir;
+    long generation=0;
+    int refs=0;
+    boolean active=true;
+
+    DirWatch(String dir) {
+      super(dir, EVENTS);
+      this.dir=dir;
+    }
+
+    @Override
+    public void onEvent(int event, String path) {
+      onDirEvent(this, event, path);
+    }
+
+    void stop() {
+      active=false;
+      watches.remove(dir);
+      stopWatching();
+    }
+  }
+}
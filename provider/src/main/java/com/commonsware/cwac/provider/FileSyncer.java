@@ -0,0 +1,334 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies a LocalPathStrategy's durability policy to the file
+ * descriptors that it hands out for writing.
+ *
+ * We never see the client's writes, only when the client closes its
+ * descriptor, courtesy of the close listener added in API Level 19.
+ * So, we keep a duplicate of each writable descriptor, and sync
+ * that: fsync() and friends work on the file, not on the
+ * descriptor. With DURABILITY_ON_CLOSE, that happens as soon as the
+ * client closes. With DURABILITY_BATCHED, every open or
+ * recently-closed file is synced together once per interval, so a
+ * burst of small files costs one round of flushes, not one per file.
+ *
+ * Syncs happen on a background thread, after the client's close()
+ * returns, as nothing on our side can delay that. Close
+ * notifications arrive on a separate thread from the syncs, so a
+ * slow flush does not hold up learning that other clients have
+ * closed (e.g., for PendingInsert.commit(), which waits on that).
+ * Below API Level 19, there is no close listener, and so no
+ * syncing.
+ */
+final class FileSyncer {
+  private static final String TAG="FileSyncer";
+  private static Handler handler=null;
+  private static Handler syncHandler=null;
+  private final int durability;
+  private final long interval;
+  private final ArrayList<Tracked> batch=new ArrayList<Tracked>();
+  private final AtomicInteger unsynced=new AtomicInteger();
+  private boolean batchScheduled=false;
+  private final Runnable flushBatch=new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  /**
+   * @param durability one of the LocalPathStrategy DURABILITY_
+   *                   constants
+   * @param interval for DURABILITY_BATCHED, how often to sync, in
+   *                 milliseconds
+   */
+  FileSyncer(int durability, long interval) {
+    if (durability != LocalPathStrategy.DURABILITY_NONE &&
+      durability != LocalPathStrategy.DURABILITY_ON_CLOSE &&
+      durability != LocalPathStrategy.DURABILITY_BATCHED) {
+      throw new IllegalArgumentException("Invalid durability: "+durability);
+    }
+
+    if (durability == LocalPathStrategy.DURABILITY_BATCHED && interval<=0) {
+      throw new IllegalArgumentException("Invalid sync interval: "+interval);
+    }
+
+    this.durability=durability;
+    this.interval=interval;
+  }
+
+  /**
+   * @return true if written content should be synced, on this
+   * device, false otherwise
+   */
+  boolean isEnabled() {
+    return(durability != LocalPathStrategy.DURABILITY_NONE &&
+      Build.VERSION.SDK_INT>=Build.VERSION_CODES.KITKAT);
+  }
+
+  /**
+   * @return the number of descriptors opened for writing whose
+   * content has not yet been synced, either because the client
+   * still has them open or because the sync has not happened yet
+   */
+  int getUnsyncedCount() {
+    return(unsynced.get());
+  }
+
+  /**
+   * Opens a file for writing, arranging to sync it per our policy.
+   *
+   * @param file the file to open
+   * @param mode ParcelFileDescriptor mode bits
+   * @param onClose run on the close-notification thread when the
+   *                client closes the descriptor, or null
+   * @return the descriptor to hand to the client
+   * @throws IOException
+   */
+  @TargetApi(Build.VERSION_CODES.KITKAT)
+  ParcelFileDescriptor open(File file, int mode, final Runnable onClose)
+    throws IOException {
+    if (!isEnabled()) {
+      return(ParcelFileDescriptor.open(file, mode));
+    }
+
+    final Tracked tracked=new Tracked(file.getName());
+    ParcelFileDescriptor result=ParcelFileDescriptor.open(file, mode,
+      getHandler(), new ParcelFileDescriptor.OnCloseListener() {
+        @Override
+        public void onClose(IOException e) {
+          if (onClose != null) {
+            onClose.run();
+          }
+
+          onClosed(tracked);
+        }
+      });
+
+    try {
+      tracked.pfd=result.dup();
+    }
+    catch (IOException e) {
+      result.close();
+      throw e;
+    }
+
+    unsynced.incrementAndGet();
+
+    if (durability == LocalPathStrategy.DURABILITY_BATCHED) {
+      synchronized(batch) {
+        batch.add(tracked);
+        scheduleBatch();
+      }
+    }
+
+    return(result);
+  }
+
+  private void onClosed(final Tracked tracked) {
+    if (tracked.pfd == null) {
+      return; // open() failed, so there is nothing to sync
+    }
+
+    if (durability == LocalPathStrategy.DURABILITY_BATCHED) {
+      synchronized(batch) {
+        tracked.closed=true;
+        scheduleBatch();
+      }
+    }
+    else {
+      getSyncHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          tracked.syncAndClose();
+          unsynced.decrementAndGet();
+        }
+      });
+    }
+  }
+
+  private void scheduleBatch() {
+    if (!batchScheduled) {
+      batchScheduled=true;
+      getSyncHandler().postDelayed(flushBatch, interval);
+    }
+  }
+
+  private void flush() {
+    ArrayList<Tracked> open=new ArrayList<Tracked>();
+    ArrayList<Tracked> finished=new ArrayList<Tracked>();
+
+    synchronized(batch) {
+      batchScheduled=false;
+
+      // anything closed by now is done after this round
+      for (Iterator<Tracked> i=batch.iterator(); i.hasNext();) {
+        Tracked tracked=i.next();
+
+        if (tracked.closed) {
+          finished.add(tracked);
+          i.remove();
+        }
+        else {
+          open.add(tracked);
+        }
+      }
+    }
+
+    for (Tracked tracked : open) {
+      tracked.sync();
+    }
+
+    for (Tracked tracked : finished) {
+      tracked.syncAndClose();
+      unsynced.decrementAndGet();
+    }
+
+    synchronized(batch) {
+      if (!batch.isEmpty()) {
+        scheduleBatch();
+      }
+    }
+  }
+
+  /**
+   * Flushes a file's content to storage, using fdatasync() where
+   * available, as we do not care about timestamps.
+   *
+   * @param fd an open descriptor on the file
+   * @throws IOException
+   */
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  static void sync(FileDescriptor fd) throws IOException {
+    if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP) {
+      try {
+        Os.fdatasync(fd);
+      }
+      catch (ErrnoException e) {
+        throw new IOException("fdatasync() failed", e);
+      }
+    }
+    else {
+      fd.sync();
+    }
+  }
+
+  /**
+   * Flushes a directory's entries to storage, so a rename into it
+   * survives a crash. Only possible on API Level 21+, and a failure
+   * is merely logged.
+   *
+   * @param dir the directory
+   */
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  static void syncDirectory(File dir) {
+    if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP) {
+      try {
+        FileDescriptor fd=Os.open(dir.getPath(), OsConstants.O_RDONLY, 0);
+
+        try {
+          Os.fsync(fd);
+        }
+        finally {
+          Os.close(fd);
+        }
+      }
+      catch (ErrnoException e) {
+        Log.w(TAG, "Could not sync "+dir, e);
+      }
+    }
+  }
+
+  /**
+   * @return the Handler for the thread that receives close
+   * notifications, which should hand any slow work, such as syncs,
+   * to getSyncHandler()
+   */
+  static synchronized Handler getHandler() {
+    if (handler == null) {
+      handler=startThread("cwac-provider-close");
+    }
+
+    return(handler);
+  }
+
+  /**
+   * @return the Handler for the thread that performs syncs
+   */
+  static synchronized Handler getSyncHandler() {
+    if (syncHandler == null) {
+      syncHandler=startThread("cwac-provider-sync");
+    }
+
+    return(syncHandler);
+  }
+
+  private static Handler startThread(String name) {
+    HandlerThread thread=new HandlerThread(name);
+
+    thread.start();
+
+    return(new Handler(thread.getLooper()));
+  }
+
+  private static class Tracked {
+    final String name;
+    volatile ParcelFileDescriptor pfd;
+    boolean closed=false;
+
+    Tracked(String name) {
+      this.name=name;
+    }
+
+    void sync() {
+      try {
+        FileSyncer.sync(pfd.getFileDescriptor());
+      }
+      catch (IOException e) {
+        Log.e(TAG, "Could not sync "+name, e);
+      }
+    }
+
+    void syncAndClose() {
+      sync();
+
+      try {
+        pfd.close();
+      }
+      catch (IOException e) {
+        Log.w(TAG, "Exception closing "+name, e);
+      }
+    }
+  }
+}
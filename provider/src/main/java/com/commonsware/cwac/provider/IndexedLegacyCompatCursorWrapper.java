@@ -0,0 +1,312 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.annotation.TargetApi;
+import android.database.CrossProcessCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.net.Uri;
+import android.os.Build;
+import java.util.TreeMap;
+import static android.provider.MediaStore.MediaColumns.DATA;
+import static android.provider.MediaStore.MediaColumns.MIME_TYPE;
+
+/**
+ * Variant of LegacyCompatCursorWrapper for wrapping large Cursors.
+ * The full set of column names, and a case-insensitive map from
+ * name to index, are computed once in the constructor, so column
+ * lookups do not re-examine the wrapped Cursor, and
+ * getColumnNames() does not copy anything.
+ *
+ * This also implements CrossProcessCursor, so when the Cursor is
+ * returned from a ContentProvider, the framework fills its
+ * CursorWindow through fillWindow(). That copies the wrapped
+ * Cursor's values and writes the fake _DATA and MIME_TYPE values
+ * straight into the window, rather than going through this
+ * wrapper's getters for each cell.
+ */
+public class IndexedLegacyCompatCursorWrapper extends LegacyCompatCursorWrapper
+  implements CrossProcessCursor {
+  private final Cursor cursor;
+  private final String[] columnNames;
+  private final TreeMap<String, Integer> indexes=
+    new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+  private final int wrappedColumnCount;
+  private final int fakeDataColumn;
+  private final int fakeMimeTypeColumn;
+  private final String dataValue;
+  private final String mimeType;
+
+  /**
+   * Constructor.
+   *
+   * @param cursor the Cursor to be wrapped
+   */
+  public IndexedLegacyCompatCursorWrapper(Cursor cursor) {
+    this(cursor, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param cursor the Cursor to be wrapped
+   * @param mimeType the MIME type of the content represented
+   *                 by the Uri that generated this Cursor, should
+   *                 we need it
+   */
+  public IndexedLegacyCompatCursorWrapper(Cursor cursor, String mimeType) {
+    this(cursor, mimeType, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param cursor the Cursor to be wrapped
+   * @param mimeType the MIME type of the content represented
+   *                 by the Uri that generated this Cursor, should
+   *                 we need it
+   * @param uriForDataColumn Uri to return for the _DATA column
+   */
+  public IndexedLegacyCompatCursorWrapper(Cursor cursor, String mimeType,
+                                          Uri uriForDataColumn) {
+    super(cursor, mimeType, uriForDataColumn);
+
+    String[] wrapped=cursor.getColumnNames();
+    int count=wrapped.length;
+
+    this.cursor=cursor;
+    this.mimeType=mimeType;
+    this.dataValue=
+      (uriForDataColumn == null ? null : uriForDataColumn.toString());
+    wrappedColumnCount=wrapped.length;
+
+    for (int i=0;i<wrapped.length;i++) {
+      if (!indexes.containsKey(wrapped[i])) {
+        indexes.put(wrapped[i], i);
+      }
+    }
+
+    fakeDataColumn=(indexes.containsKey(DATA) ? -1 : count++);
+    fakeMimeTypeColumn=(indexes.containsKey(MIME_TYPE) ? -1 : count++);
+    columnNames=new String[count];
+    System.arraycopy(wrapped, 0, columnNames, 0, wrapped.length);
+
+    if (fakeDataColumn>=0) {
+      columnNames[fakeDataColumn]=DATA;
+      indexes.put(DATA, fakeDataColumn);
+    }
+
+    if (fakeMimeTypeColumn>=0) {
+      columnNames[fakeMimeTypeColumn]=MIME_TYPE;
+      indexes.put(MIME_TYPE, fakeMimeTypeColumn);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getColumnCount() {
+    return(columnNames.length);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getColumnIndex(String columnName) {
+    Integer result=indexes.get(columnName);
+
+    if (result != null) {
+      return(result);
+    }
+
+    // handles qualified names (e.g., table.column)
+
+    return(cursor.getColumnIndex(columnName));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getColumnName(int columnIndex) {
+    return(columnNames[columnIndex]);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String[] getColumnNames() {
+    return(columnNames);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getString(int columnIndex) {
+    if (columnIndex==fakeDataColumn) {
+      return(dataValue);
+    }
+
+    if (columnIndex==fakeMimeTypeColumn) {
+      return(mimeType);
+    }
+
+    return(cursor.getString(columnIndex));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isNull(int columnIndex) {
+    if (columnIndex>=wrappedColumnCount) {
+      return(getString(columnIndex) == null);
+    }
+
+    return(cursor.isNull(columnIndex));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType(int columnIndex) {
+    if (columnIndex>=wrappedColumnCount) {
+      return(Cursor.FIELD_TYPE_STRING);
+    }
+
+    return(cursor.getType(columnIndex));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CursorWindow getWindow() {
+    return(null);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean onMove(int oldPosition, int newPosition) {
+    if (cursor instanceof CrossProcessCursor) {
+      return(((CrossProcessCursor)cursor).onMove(oldPosition, newPosition));
+    }
+
+    return(true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void fillWindow(int position, CursorWindow window) {
+    if (position<0 || position>=cursor.getCount()) {
+      return;
+    }
+
+    int oldPosition=cursor.getPosition();
+
+    window.acquireReference();
+
+    try {
+      window.clear();
+      window.setStartPosition(position);
+      window.setNumColumns(columnNames.length);
+
+      if (cursor.moveToPosition(position)) {
+        do {
+          if (!window.allocRow()) {
+            break;
+          }
+
+          if (!putRow(window, position)) {
+            window.freeLastRow();
+            break;
+          }
+
+          position++;
+        } while (cursor.moveToNext());
+      }
+    }
+    finally {
+      window.releaseReference();
+      cursor.moveToPosition(oldPosition);
+    }
+  }
+
+  private boolean putRow(CursorWindow window, int row) {
+    for (int col=0;col<wrappedColumnCount;col++) {
+      if (!putWrapped(window, row, col)) {
+        return(false);
+      }
+    }
+
+    if (fakeDataColumn>=0 && !putString(window, dataValue, row, fakeDataColumn)) {
+      return(false);
+    }
+
+    if (fakeMimeTypeColumn>=0 &&
+      !putString(window, mimeType, row, fakeMimeTypeColumn)) {
+      return(false);
+    }
+
+    return(true);
+  }
+
+  private boolean putWrapped(CursorWindow window, int row, int col) {
+    if (Build.VERSION.SDK_INT<Build.VERSION_CODES.HONEYCOMB) {
+      return(putString(window, cursor.getString(col), row, col));
+    }
+
+    return(putTyped(window, row, col));
+  }
+
+  @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+  private boolean putTyped(CursorWindow window, int row, int col) {
+    switch (cursor.getType(col)) {
+      case Cursor.FIELD_TYPE_NULL:
+        return(window.putNull(row, col));
+
+      case Cursor.FIELD_TYPE_INTEGER:
+        return(window.putLong(cursor.getLong(col), row, col));
+
+      case Cursor.FIELD_TYPE_FLOAT:
+        return(window.putDouble(cursor.getDouble(col), row, col));
+
+      case Cursor.FIELD_TYPE_BLOB:
+        return(window.putBlob(cursor.getBlob(col), row, col));
+
+      default:
+        return(putString(window, cursor.getString(col), row, col));
+    }
+  }
+
+  private static boolean putString(CursorWindow window, String value,
+                                   int row, int col) {
+    if (value == null) {
+      return(window.putNull(row, col));
+    }
+
+    return(window.putString(value, row, col));
+  }
+}
@@ -0,0 +1,186 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * StreamStrategy that holds onto a StrategyDescriptor and only
+ * builds the real strategy the first time something needs it.
+ * Used when the provider's USE_LAZY_STRATEGIES meta-data is true,
+ * so paths that are never requested never cost any filesystem
+ * or resource work.
+ */
+class LazyStreamStrategy implements StreamStrategy {
+  private final StreamProvider provider;
+  private final Context context;
+  private final StrategyDescriptor descriptor;
+  private volatile StreamStrategy delegate=null;
+
+  /**
+   * Constructor.
+   *
+   * @param provider the StreamProvider whose buildStrategy() should
+   *                 create the real strategy
+   * @param context the Context to pass to buildStrategy()
+   * @param descriptor the configuration of the strategy
+   */
+  LazyStreamStrategy(StreamProvider provider, Context context,
+                     StrategyDescriptor descriptor) {
+    this.provider=provider;
+    this.context=context;
+    this.descriptor=descriptor;
+  }
+
+  /**
+   * @return the real strategy, building it if needed
+   */
+  StreamStrategy get() {
+    StreamStrategy result=delegate;
+
+    if (result == null) {
+      synchronized(this) {
+        result=delegate;
+
+        if (result == null) {
+          result=provider.buildStrategy(context, descriptor);
+          delegate=result;
+        }
+      }
+    }
+
+    return(result);
+  }
+
+  /**
+   * @return the real strategy, or null if it has not been built
+   */
+  StreamStrategy peek() {
+    return(delegate);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getType(Uri uri) {
+    return(get().getType(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean canInsert(Uri uri) {
+    return(get().canInsert(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Uri insert(Uri uri, ContentValues values) {
+    return(get().insert(uri, values));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean canUpdate(Uri uri) {
+    return(get().canUpdate(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int update(Uri uri, ContentValues values,
+                    String selection, String[] selectionArgs) {
+    return(get().update(uri, values, selection, selectionArgs));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean canDelete(Uri uri) {
+    return(get().canDelete(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void delete(Uri uri) {
+    get().delete(uri);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ParcelFileDescriptor openFile(Uri uri, String mode)
+    throws FileNotFoundException {
+    return(get().openFile(uri, mode));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getName(Uri uri) {
+    return(get().getName(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getLength(Uri uri) {
+    return(get().getLength(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean hasAFD(Uri uri) {
+    return(get().hasAFD(uri));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public AssetFileDescriptor openAssetFile(Uri uri, String mode)
+    throws FileNotFoundException {
+    return(get().openAssetFile(uri, mode));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean buildUriForFile(Uri.Builder b, File file) {
+    return(get().buildUriForFile(b, file));
+  }
+}
@@ -15,24 +15,104 @@
 
 package com.commonsware.cwac.provider;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.ParcelFileDescriptor;
-import android.webkit.MimeTypeMap;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.HashMap;
 
 /**
  * Concrete StreamStrategy implementation that handles
  * files on the local filesystem. Requires that the app actually
  * be able to read and write those files.
+ *
+ * On API Level 19+, unless the strategy is read-only, clients can
+ * insert() new content into a directory, supplying a DISPLAY_NAME
+ * and, optionally, the expected SIZE. The content is written to a
+ * temporary file and only appears under its name once the client
+ * closes the file descriptor that it got from openFile() on the
+ * returned Uri. See PendingInsert for the details. A DISPLAY_NAME
+ * that looks like one of those temporary files is rejected.
+ *
+ * If the insert()'s ContentValues set StreamProvider.UPLOAD_RESUMABLE,
+ * closing does not publish the content. Instead, the client can
+ * close and reopen the Uri in "wa" mode as often as it likes, even
+ * across restarts of either process, with query() reporting how much
+ * has been written so far as the SIZE. update() with
+ * StreamProvider.UPLOAD_COMMIT then publishes the content (true) or
+ * discards it (false). Uploads that are not touched for the upload
+ * expiry period are deleted when their directory is next swept:
+ * whenever something is inserted into it, and, at most hourly,
+ * whenever an upload in it is looked up (e.g., by openFile() for
+ * writing, update(), delete(), or query()).
+ *
+ * By default, content written by clients is left for the kernel to
+ * flush whenever it likes. A durability policy of
+ * DURABILITY_ON_CLOSE or DURABILITY_BATCHED syncs that content to
+ * storage after the client closes its descriptor, or periodically,
+ * on API Level 19+. See FileSyncer for the details.
  */
 public class LocalPathStrategy implements StreamStrategy {
+  /**
+   * Do not sync written content; the kernel flushes it eventually
+   */
+  public static final int DURABILITY_NONE=0;
+  /**
+   * Sync written content as soon as the client closes its
+   * descriptor
+   */
+  public static final int DURABILITY_ON_CLOSE=1;
+  /**
+   * Sync written content, for all files being written, once per
+   * sync interval
+   */
+  public static final int DURABILITY_BATCHED=2;
+  /**
+   * Default sync interval for DURABILITY_BATCHED, in milliseconds
+   */
+  public static final long DEFAULT_SYNC_INTERVAL=1000;
+  /**
+   * Default time after which an untouched resumable upload is
+   * deleted, in milliseconds
+   */
+  public static final long DEFAULT_UPLOAD_EXPIRY=24L*60*60*1000;
+  private static final int MIME_SNIFFER_SIZE=256;
+  private static final long EXPIRY_SWEEP_INTERVAL=60*60*1000;
   private final File root;
   private final String name;
   private final boolean readOnly;
+  private final FileMetadataCache metadataCache;
+  private final MimeResolver mimeResolver;
+  private final MimeSniffer mimeSniffer;
+  private final FileSyncer syncer;
+  private final long uploadExpiry;
+  private final HashMap<String, PendingInsert> pendingInserts=
+    new HashMap<String, PendingInsert>();
+  private final HashMap<String, Long> lastSweeps=new HashMap<String, Long>();
+  private final PendingInsert.OnFinishedListener onInsertFinished=
+    new PendingInsert.OnFinishedListener() {
+      @Override
+      public void onFinished(PendingInsert insert, boolean published) {
+        synchronized(pendingInserts) {
+          if (pendingInserts.get(insert.target.getPath()) == insert) {
+            pendingInserts.remove(insert.target.getPath());
+          }
+        }
+
+        if (published && metadataCache != null) {
+          metadataCache.invalidate(insert.target);
+        }
+      }
+    };
 
   /**
    * Constructor.
@@ -45,9 +125,32 @@ public class LocalPathStrategy implements StreamStrategy {
    */
   public LocalPathStrategy(String name, File root, boolean readOnly)
     throws IOException {
+    this(name, root, readOnly, new Options());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param name name of first path segment of Uri values (not
+   *             counting the prefix, if any)
+   * @param root directory or file from which to serve
+   * @param readOnly  true if should only allow read access, false otherwise
+   * @param options the rest of the configuration
+   * @throws IOException
+   */
+  public LocalPathStrategy(String name, File root, boolean readOnly,
+                           Options options)
+    throws IOException {
     this.root=root.getCanonicalFile();
     this.name=name;
     this.readOnly=readOnly;
+    this.metadataCache=(options.metadataCacheSize>0 ?
+      new FileMetadataCache(options.metadataCacheSize) : null);
+    this.mimeResolver=options.mimeResolver;
+    this.mimeSniffer=
+      (options.sniffMimeTypes ? new MimeSniffer(MIME_SNIFFER_SIZE) : null);
+    this.syncer=new FileSyncer(options.durability, options.syncInterval);
+    this.uploadExpiry=options.uploadExpiry;
   }
 
   /**
@@ -55,21 +158,14 @@ public class LocalPathStrategy implements StreamStrategy {
    */
   @Override
   public String getType(Uri uri) {
-    final File file=getFileForUri(uri);
-    final int lastDot=file.getName().lastIndexOf('.');
-    
-    if (lastDot >= 0) {
-      final String extension=file.getName().substring(lastDot + 1);
-      final String mime=
-          MimeTypeMap.getSingleton()
-                     .getMimeTypeFromExtension(extension);
-      
-      if (mime != null) {
-        return(mime);
-      }
+    final ResolvedFile resolved=resolve(uri);
+    String result=mimeResolver.getTypeForName(resolved.file.getPath());
+
+    if (result == null && mimeSniffer != null) {
+      result=mimeSniffer.sniff(resolved);
     }
 
-    return(null);
+    return(result);
   }
 
   /**
@@ -77,7 +173,9 @@ public class LocalPathStrategy implements StreamStrategy {
    */
   @Override
   public boolean canInsert(Uri uri) {
-    return(false);
+    return(!readOnly &&
+      Build.VERSION.SDK_INT>=Build.VERSION_CODES.KITKAT &&
+      resolve(uri).isDirectory());
   }
 
   /**
@@ -85,7 +183,46 @@ public class LocalPathStrategy implements StreamStrategy {
    */
   @Override
   public Uri insert(Uri uri, ContentValues values) {
-    throw new UnsupportedOperationException("Um, this should not have been called");
+    String displayName=
+      (values == null ? null : values.getAsString(OpenableColumns.DISPLAY_NAME));
+    Long size=(values == null ? null : values.getAsLong(OpenableColumns.SIZE));
+    boolean resumable=(values != null &&
+      Boolean.TRUE.equals(values.getAsBoolean(StreamProvider.UPLOAD_RESUMABLE)));
+
+    if (displayName == null || displayName.length() == 0 ||
+      displayName.indexOf('/')>=0 || ".".equals(displayName) ||
+      "..".equals(displayName) || PendingInsert.isTempName(displayName)) {
+      throw new IllegalArgumentException("Invalid display name: "+displayName);
+    }
+
+    File dir=resolve(uri).file;
+    File target=new File(dir, displayName);
+    PendingInsert insert;
+
+    expireUploads(dir);
+
+    if (target.exists() || getPendingInsert(target) != null) {
+      throw new IllegalArgumentException("Content already exists: "+displayName);
+    }
+
+    try {
+      insert=PendingInsert.create(dir, displayName,
+        size == null ? 0 : Math.max(0, size), resumable);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Could not create "+displayName, e);
+    }
+
+    synchronized(pendingInserts) {
+      if (pendingInserts.containsKey(target.getPath())) {
+        insert.discard();
+        throw new IllegalArgumentException("Content already exists: "+displayName);
+      }
+
+      pendingInserts.put(target.getPath(), insert);
+    }
+
+    return(uri.buildUpon().appendPath(displayName).build());
   }
 
   /**
@@ -93,7 +230,13 @@ public class LocalPathStrategy implements StreamStrategy {
    */
   @Override
   public boolean canUpdate(Uri uri) {
-    return(false);
+    if (readOnly) {
+      return(false);
+    }
+
+    PendingInsert upload=getPendingInsert(resolve(uri).file);
+
+    return(upload != null && upload.resumable);
   }
 
   /**
@@ -102,7 +245,40 @@ public class LocalPathStrategy implements StreamStrategy {
   @Override
   public int update(Uri uri, ContentValues values,
                     String selection, String[] selectionArgs) {
-    throw new UnsupportedOperationException("Um, this should not have been called");
+    Boolean commit=
+      (values == null ? null : values.getAsBoolean(StreamProvider.UPLOAD_COMMIT));
+
+    if (commit == null) {
+      throw new IllegalArgumentException("Missing "+StreamProvider.UPLOAD_COMMIT);
+    }
+
+    PendingInsert upload=getPendingInsert(resolve(uri).file);
+
+    if (upload == null || !upload.resumable) {
+      return(0);
+    }
+
+    if (commit) {
+      if (!upload.commit(syncer.isEnabled())) {
+        throw new IllegalStateException("Could not publish "+
+          upload.target.getName());
+      }
+    }
+    else {
+      upload.discard();
+    }
+
+    synchronized(pendingInserts) {
+      pendingInserts.remove(upload.target.getPath());
+    }
+
+    RequestScope.invalidate();
+
+    if (metadataCache != null) {
+      metadataCache.invalidate(upload.target);
+    }
+
+    return(1);
   }
 
   /**
@@ -110,7 +286,8 @@ public class LocalPathStrategy implements StreamStrategy {
    */
   @Override
   public boolean canDelete(Uri uri) {
-    return(!readOnly && getFileForUri(uri).exists());
+    return(!readOnly &&
+      (resolve(uri).exists() || getPendingInsert(resolve(uri).file) != null));
   }
 
   /**
@@ -119,7 +296,23 @@ public class LocalPathStrategy implements StreamStrategy {
   @Override
   public void delete(Uri uri) {
     if (!readOnly) {
-      getFileForUri(uri).delete();
+      File file=resolve(uri).file;
+      PendingInsert insert;
+
+      synchronized(pendingInserts) {
+        insert=pendingInserts.remove(file.getPath());
+      }
+
+      if (insert != null) {
+        insert.discard();
+      }
+
+      file.delete();
+      RequestScope.invalidate();
+
+      if (metadataCache!=null) {
+        metadataCache.invalidate(file);
+      }
     }
   }
 
@@ -133,12 +326,205 @@ public class LocalPathStrategy implements StreamStrategy {
       throw new FileNotFoundException("Invalid mode for read-only content");
     }
 
-    final File file=getFileForUri(uri);
+    final File file=resolve(uri).file;
     final int fileMode=modeToMode(mode);
+
+    if (!"r".equals(mode)) {
+      PendingInsert insert=getPendingInsert(file);
+
+      if (insert != null) {
+        return(openPendingInsert(insert, fileMode));
+      }
+
+      // the FileObserver will catch up with the client's writes, but
+      // a query() right after the client closes should not have to
+      // wait for it, so we invalidate now and again upon close
+      Runnable invalidator=null;
+
+      if (metadataCache != null) {
+        metadataCache.invalidate(file);
+        invalidator=new Runnable() {
+          @Override
+          public void run() {
+            metadataCache.invalidate(file);
+          }
+        };
+      }
+
+      if (syncer.isEnabled()) {
+        return(openSynced(file, fileMode, invalidator));
+      }
+
+      if (invalidator != null &&
+        Build.VERSION.SDK_INT>=Build.VERSION_CODES.KITKAT) {
+        return(openInvalidating(file, fileMode, invalidator));
+      }
+    }
     
     return(ParcelFileDescriptor.open(file, fileMode));
   }
 
+  private ParcelFileDescriptor openSynced(File file, int fileMode,
+                                          Runnable onClose)
+    throws FileNotFoundException {
+    try {
+      return(syncer.open(file, fileMode, onClose));
+    }
+    catch (FileNotFoundException e) {
+      throw e;
+    }
+    catch (IOException e) {
+      throw asFileNotFound("Could not open "+file.getName(), e);
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.KITKAT)
+  private ParcelFileDescriptor openInvalidating(File file, int fileMode,
+                                                final Runnable onClose)
+    throws FileNotFoundException {
+    try {
+      return(ParcelFileDescriptor.open(file, fileMode,
+        FileSyncer.getHandler(), new ParcelFileDescriptor.OnCloseListener() {
+          @Override
+          public void onClose(IOException e) {
+            onClose.run();
+          }
+        }));
+    }
+    catch (FileNotFoundException e) {
+      throw e;
+    }
+    catch (IOException e) {
+      throw asFileNotFound("Could not open "+file.getName(), e);
+    }
+  }
+
+  private PendingInsert getPendingInsert(File file) {
+    maybeExpireUploads(file.getParentFile());
+
+    synchronized(pendingInserts) {
+      PendingInsert result=pendingInserts.get(file.getPath());
+
+      if (result == null) {
+        // perhaps a resumable upload from before we were restarted
+        result=PendingInsert.recover(file);
+
+        if (result != null) {
+          if (isExpired(result.temp)) {
+            result.discard();
+            result=null;
+          }
+          else {
+            pendingInserts.put(file.getPath(), result);
+          }
+        }
+      }
+
+      return(result);
+    }
+  }
+
+  /**
+   * Calls expireUploads(), unless this directory was swept within
+   * the last EXPIRY_SWEEP_INTERVAL (or uploadExpiry, if that is
+   * shorter), as listing the directory on every lookup is not free.
+   */
+  private void maybeExpireUploads(File dir) {
+    if (dir != null) {
+      Long last;
+
+      synchronized(lastSweeps) {
+        last=lastSweeps.get(dir.getPath());
+      }
+
+      if (last == null || SystemClock.elapsedRealtime()-last>=
+        Math.min(EXPIRY_SWEEP_INTERVAL, uploadExpiry)) {
+        expireUploads(dir);
+      }
+    }
+  }
+
+  /**
+   * Deletes temporary files in this directory that nobody has
+   * touched in uploadExpiry milliseconds: abandoned resumable uploads,
+   * plus regular inserts orphaned by a crash of our own process.
+   */
+  private void expireUploads(File dir) {
+    synchronized(lastSweeps) {
+      lastSweeps.put(dir.getPath(), SystemClock.elapsedRealtime());
+    }
+
+    String[] names=dir.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return(PendingInsert.isTempName(name));
+      }
+    });
+
+    if (names == null) {
+      return;
+    }
+
+    for (String name : names) {
+      File temp=new File(dir, name);
+
+      if (!isExpired(temp)) {
+        continue;
+      }
+
+      synchronized(pendingInserts) {
+        PendingInsert owner=null;
+
+        for (PendingInsert insert : pendingInserts.values()) {
+          if (insert.temp.equals(temp)) {
+            owner=insert;
+            break;
+          }
+        }
+
+        if (owner != null) {
+          if (owner.isOpen()) {
+            continue;
+          }
+
+          pendingInserts.remove(owner.target.getPath());
+          owner.discard();
+        }
+        else {
+          temp.delete();
+        }
+      }
+    }
+  }
+
+  private boolean isExpired(File temp) {
+    return(System.currentTimeMillis()-temp.lastModified()>uploadExpiry);
+  }
+
+  @TargetApi(Build.VERSION_CODES.KITKAT)
+  private ParcelFileDescriptor openPendingInsert(PendingInsert insert,
+                                                 int fileMode)
+    throws FileNotFoundException {
+    try {
+      return(insert.open(fileMode, syncer.isEnabled(), onInsertFinished));
+    }
+    catch (FileNotFoundException e) {
+      throw e;
+    }
+    catch (IOException e) {
+      throw asFileNotFound("Could not open "+insert.target.getName(), e);
+    }
+  }
+
+  private static FileNotFoundException asFileNotFound(String message,
+                                                      IOException e) {
+    FileNotFoundException result=new FileNotFoundException(message);
+
+    result.initCause(e);
+
+    return(result);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -161,7 +547,7 @@ public class LocalPathStrategy implements StreamStrategy {
    */
   @Override
   public String getName(Uri uri) {
-    return(getFileForUri(uri).getName());
+    return(resolve(uri).file.getName());
   }
 
   /**
@@ -169,7 +555,17 @@ public class LocalPathStrategy implements StreamStrategy {
    */
   @Override
   public long getLength(Uri uri) {
-    return(getFileForUri(uri).length());
+    ResolvedFile resolved=resolve(uri);
+
+    if (!readOnly && !resolved.exists()) {
+      PendingInsert upload=getPendingInsert(resolved.file);
+
+      if (upload != null && upload.resumable) {
+        return(upload.temp.length());
+      }
+    }
+
+    return(resolved.length());
   }
 
   /**
@@ -179,14 +575,9 @@ public class LocalPathStrategy implements StreamStrategy {
   public boolean buildUriForFile(Uri.Builder b, File file) {
     try {
       String fpath=file.getCanonicalPath();
-      String rpath=root.getCanonicalPath();
-
-      if (fpath.startsWith(rpath)) {
-        b
-          .appendPath(name)
-          .appendPath(fpath.substring(rpath.length() + 1));
 
-        return(true);
+      if (isUnderRoot(fpath)) {
+        return(buildUriForCanonicalPath(b, fpath));
       }
     }
     catch (IOException e) {
@@ -197,6 +588,139 @@ public class LocalPathStrategy implements StreamStrategy {
     return(false);
   }
 
+  /**
+   * Lists the contents of a directory.
+   *
+   * @param uri the normalized Uri for the content
+   * @param original the Uri as supplied by the client, used to
+   *                 build the Uris of the children
+   * @param projection the columns to return, or null for the
+   *                   defaults
+   * @param sortOrder the sort order and limit, or null
+   * @return a Cursor with one row per child, or null if the Uri
+   * does not point to a directory
+   */
+  Cursor queryDirectory(Uri uri, Uri original, String[] projection,
+                        String sortOrder) {
+    ResolvedFile resolved=resolve(uri);
+
+    if (!resolved.isDirectory()) {
+      return(null);
+    }
+
+    return(DirectoryCursor.create(resolved.file, root, original,
+      projection, sortOrder));
+  }
+
+  /**
+   * @return the canonical form of the root that this strategy
+   * serves from
+   */
+  File getRoot() {
+    return(root);
+  }
+
+  /**
+   * Same as buildUriForFile(), for callers that have already
+   * canonicalized the file and confirmed that it is this root or
+   * something inside of it.
+   *
+   * @param b a Uri.Builder on which to append the path
+   * @param fpath canonical path of the file
+   * @return true if the builder was filled in, false otherwise
+   */
+  boolean buildUriForCanonicalPath(Uri.Builder b, String fpath) {
+    String rpath=root.getPath();
+
+    b.appendPath(name);
+
+    if (fpath.length()>rpath.length()) {
+      b.appendPath(fpath.substring(rpath.length() + 1));
+    }
+
+    return(true);
+  }
+
+  private boolean isUnderRoot(String fpath) {
+    return(isUnder(fpath, root));
+  }
+
+  /**
+   * @param fpath canonical path of a file
+   * @param root canonical root of a LocalPathStrategy
+   * @return true if the file is that root or something inside of
+   * it, false otherwise
+   */
+  static boolean isUnder(String fpath, File root) {
+    String rpath=root.getPath();
+
+    return(fpath.startsWith(rpath) &&
+      (fpath.length()==rpath.length() ||
+        fpath.charAt(rpath.length())=='/'));
+  }
+
+  /**
+   * Maps the Uri to its file, reusing the result from earlier
+   * calls made during the same provider operation, so a query()
+   * canonicalizes and stats the file only once.
+   *
+   * @param uri the Uri for the content
+   * @return the resolved file
+   */
+  ResolvedFile resolve(Uri uri) {
+    ResolvedFile result=(ResolvedFile)RequestScope.get(this, uri);
+
+    if (result == null) {
+      if (metadataCache == null) {
+        result=new ResolvedFile(getFileForUri(uri));
+      }
+      else {
+        String key=uri.getEncodedPath();
+
+        result=metadataCache.get(key);
+
+        if (result == null) {
+          File file=getFileForUri(uri);
+          Object token=metadataCache.prepare(file);
+
+          result=new ResolvedFile(file).statNow();
+          metadataCache.put(key, result, token);
+        }
+      }
+
+      RequestScope.put(this, uri, result);
+    }
+
+    return(result);
+  }
+
+  /**
+   * @return the number of times file metadata was served from
+   * the cache, or -1 if this strategy does not cache metadata
+   */
+  public long getMetadataCacheHitCount() {
+    return(metadataCache == null ? -1 : metadataCache.getHitCount());
+  }
+
+  /**
+   * @return the number of times file metadata had to be read
+   * from disk despite the cache, or -1 if this strategy does not
+   * cache metadata
+   */
+  public long getMetadataCacheMissCount() {
+    return(metadataCache == null ? -1 : metadataCache.getMissCount());
+  }
+
+  /**
+   * @return the number of files opened for writing whose content
+   * has not yet been synced per the durability policy, either
+   * because the client is still writing or because the sync is
+   * still to come; always 0 for DURABILITY_NONE
+   */
+  public int getUnsyncedFileCount() {
+    return(syncer.getUnsyncedCount());
+  }
+
   /**
    * @param uri the Uri for the content
    * @return a File pointing to where that content should reside,
@@ -279,4 +803,86 @@ public class LocalPathStrategy implements StreamStrategy {
     
     return(modeBits);
   }
+
+  /**
+   * Optional configuration for a LocalPathStrategy, each setting
+   * matching an attribute of the paths XML. The defaults match
+   * leaving those attributes off.
+   */
+  public static class Options {
+    private int metadataCacheSize=0;
+    private MimeResolver mimeResolver=MimeResolver.getDefault();
+    private boolean sniffMimeTypes=false;
+    private int durability=DURABILITY_NONE;
+    private long syncInterval=DEFAULT_SYNC_INTERVAL;
+    private long uploadExpiry=DEFAULT_UPLOAD_EXPIRY;
+
+    /**
+     * @param metadataCacheSize maximum number of files whose name,
+     *                          size, and existence should be cached
+     *                          between requests, or 0 to not cache
+     * @return this, for chaining
+     */
+    public Options setMetadataCacheSize(int metadataCacheSize) {
+      this.metadataCacheSize=metadataCacheSize;
+
+      return(this);
+    }
+
+    /**
+     * @param mimeResolver maps file names to MIME types
+     * @return this, for chaining
+     */
+    public Options setMimeResolver(MimeResolver mimeResolver) {
+      this.mimeResolver=mimeResolver;
+
+      return(this);
+    }
+
+    /**
+     * @param sniffMimeTypes true if the MIME type of files whose
+     *                       names are not recognized should be
+     *                       determined from their contents
+     * @return this, for chaining
+     */
+    public Options setSniffMimeTypes(boolean sniffMimeTypes) {
+      this.sniffMimeTypes=sniffMimeTypes;
+
+      return(this);
+    }
+
+    /**
+     * @param durability DURABILITY_NONE, DURABILITY_ON_CLOSE, or
+     *                   DURABILITY_BATCHED
+     * @return this, for chaining
+     */
+    public Options setDurability(int durability) {
+      this.durability=durability;
+
+      return(this);
+    }
+
+    /**
+     * @param syncInterval for DURABILITY_BATCHED, how often to sync
+     *                     written content, in milliseconds
+     * @return this, for chaining
+     */
+    public Options setSyncInterval(long syncInterval) {
+      this.syncInterval=syncInterval;
+
+      return(this);
+    }
+
+    /**
+     * @param uploadExpiry how long a resumable upload can go
+     *                     untouched before it is deleted, in
+     *                     milliseconds
+     * @return this, for chaining
+     */
+    public Options setUploadExpiry(long uploadExpiry) {
+      this.uploadExpiry=uploadExpiry;
+
+      return(this);
+    }
+  }
 }
@@ -0,0 +1,256 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import static android.provider.MediaStore.MediaColumns.DATA;
+import static android.provider.MediaStore.MediaColumns.MIME_TYPE;
+
+/**
+ * The single-row Cursor returned by StreamProvider's query() for a
+ * piece of content. Produces the same columns, in the same order,
+ * as a MatrixCursor wrapped in a LegacyCompatCursorWrapper, but
+ * without building either: the column list is worked out once,
+ * and the DISPLAY_NAME, SIZE, and legacy _DATA and MIME_TYPE
+ * values are only looked up when the client first reads a value.
+ */
+final class MetadataCursor extends AbstractCursor {
+  static final int KIND_VALUE=0;
+  static final int KIND_NAME=1;
+  static final int KIND_SIZE=2;
+  static final int KIND_DATA=3;
+  static final int KIND_MIME_TYPE=4;
+
+  static final String[] DEFAULT_COLUMNS={
+    OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+  static final String[] DEFAULT_LEGACY_COLUMNS={
+    OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE, DATA, MIME_TYPE };
+  static final int[] DEFAULT_KINDS={ KIND_NAME, KIND_SIZE };
+  static final int[] DEFAULT_LEGACY_KINDS={
+    KIND_NAME, KIND_SIZE, KIND_DATA, KIND_MIME_TYPE };
+
+  private final StreamProvider provider;
+  private final Uri normalized;
+  private final Uri original;
+  private final Uri uriForDataColumn;
+  private final String[] columns;
+  private final int[] kinds;
+  private final Object[] values;
+  private volatile boolean loaded=false;
+
+  /**
+   * Constructor.
+   *
+   * @param provider the provider, for looking up the values
+   * @param normalized the Uri of the content, without the prefix
+   * @param original the Uri of the content, as the client supplied it
+   * @param uriForDataColumn Uri to return for the _DATA column, or null
+   * @param columns the column names
+   * @param kinds how to get the value for each column (KIND_*)
+   * @param values for KIND_VALUE columns, the already-known values;
+   *               the array is filled in with the rest when they
+   *               are first needed, so do not share it
+   */
+  MetadataCursor(StreamProvider provider, Uri normalized, Uri original,
+                 Uri uriForDataColumn, String[] columns, int[] kinds,
+                 Object[] values) {
+    this.provider=provider;
+    this.normalized=normalized;
+    this.original=original;
+    this.uriForDataColumn=uriForDataColumn;
+    this.columns=columns;
+    this.kinds=kinds;
+    this.values=values;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getCount() {
+    return(1);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String[] getColumnNames() {
+    return(columns);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getString(int column) {
+    Object value=get(column);
+
+    return(value == null ? null : value.toString());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public short getShort(int column) {
+    return((short)getLong(column));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getInt(int column) {
+    return((int)getLong(column));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getLong(int column) {
+    Object value=get(column);
+
+    if (value == null) {
+      return(0);
+    }
+
+    if (value instanceof Number) {
+      return(((Number)value).longValue());
+    }
+
+    return(Long.parseLong(value.toString()));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public float getFloat(int column) {
+    return((float)getDouble(column));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public double getDouble(int column) {
+    Object value=get(column);
+
+    if (value == null) {
+      return(0.0d);
+    }
+
+    if (value instanceof Number) {
+      return(((Number)value).doubleValue());
+    }
+
+    return(Double.parseDouble(value.toString()));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public byte[] getBlob(int column) {
+    return((byte[])get(column));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isNull(int column) {
+    return(get(column) == null);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType(int column) {
+    Object value=get(column);
+
+    if (value == null) {
+      return(Cursor.FIELD_TYPE_NULL);
+    }
+    else if (value instanceof byte[]) {
+      return(Cursor.FIELD_TYPE_BLOB);
+    }
+    else if (value instanceof Float || value instanceof Double) {
+      return(Cursor.FIELD_TYPE_FLOAT);
+    }
+    else if (value instanceof Number) {
+      return(Cursor.FIELD_TYPE_INTEGER);
+    }
+
+    return(Cursor.FIELD_TYPE_STRING);
+  }
+
+  private Object get(int column) {
+    checkPosition();
+
+    if (!loaded) {
+      load();
+    }
+
+    return(values[column]);
+  }
+
+  private synchronized void load() {
+    if (loaded) {
+      return;
+    }
+
+    RequestScope.begin();
+
+    try {
+      for (int i=0;i<kinds.length;i++) {
+        switch (kinds[i]) {
+          case KIND_NAME:
+            values[i]=provider.getValueForQueryColumn(normalized,
+              OpenableColumns.DISPLAY_NAME);
+            break;
+
+          case KIND_SIZE:
+            values[i]=provider.getValueForQueryColumn(normalized,
+              OpenableColumns.SIZE);
+            break;
+
+          case KIND_DATA:
+            values[i]=
+              (uriForDataColumn == null ? null : uriForDataColumn.toString());
+            break;
+
+          case KIND_MIME_TYPE:
+            values[i]=provider.getType(original);
+            break;
+
+          default:
+            break;
+        }
+      }
+    }
+    finally {
+      RequestScope.end();
+    }
+
+    loaded=true;
+  }
+}
@@ -0,0 +1,275 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.text.TextUtils;
+import android.webkit.MimeTypeMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps file names to MIME types for StreamProvider's strategies.
+ *
+ * Lookups go through a small open-addressing table, matched
+ * case-insensitively against a region of the name, so resolving
+ * a common extension does not allocate. The default table holds
+ * the extensions that apps serve most often, with the MIME types
+ * that MimeTypeMap reports for them; anything else falls through
+ * to MimeTypeMap itself.
+ *
+ * Override getTypeForExtension() to plug in your own mappings,
+ * and return your subclass from StreamProvider's
+ * buildMimeResolver().
+ */
+public class MimeResolver {
+  private static final String[] COMMON_EXTENSIONS={
+    "3gp", "aac", "apk", "avi", "bmp", "css", "csv", "doc", "docx",
+    "epub", "flac", "gif", "gz", "heic", "heif", "htm", "html", "ico",
+    "jpe", "jpeg", "jpg", "js", "json", "m4a", "m4v", "mid", "midi",
+    "mkv", "mov", "mp3", "mp4", "mpeg", "mpg", "odt", "oga", "ogg",
+    "ogv", "opus", "pdf", "png", "ppt", "pptx", "rtf", "svg", "tar",
+    "txt", "vcf", "wav", "webm", "webp", "xls", "xlsx", "xml", "zip"
+  };
+  private static volatile MimeResolver DEFAULT=null;
+
+  private final MimeResolver parent;
+  private final String fixedType;
+  private final String[] keys;
+  private final String[] values;
+  private final int mask;
+
+  /**
+   * @return the shared resolver, backed by MimeTypeMap
+   */
+  public static MimeResolver getDefault() {
+    MimeResolver result=DEFAULT;
+
+    if (result == null) {
+      result=new MimeResolver();
+      DEFAULT=result;
+    }
+
+    return(result);
+  }
+
+  /**
+   * Constructor. Builds the table of common extensions from
+   * MimeTypeMap; use getDefault() rather than creating more of
+   * these, unless you are subclassing.
+   */
+  public MimeResolver() {
+    this(null, null, buildCommonTypes());
+  }
+
+  private MimeResolver(MimeResolver parent, String fixedType,
+                       Map<String, String> types) {
+    int capacity=4;
+
+    while (capacity<types.size()*2) {
+      capacity*=2;
+    }
+
+    this.parent=parent;
+    this.fixedType=fixedType;
+    this.keys=new String[capacity];
+    this.values=new String[capacity];
+    this.mask=capacity-1;
+
+    for (Map.Entry<String, String> entry : types.entrySet()) {
+      String key=entry.getKey();
+      int i=hash(key, 0, key.length()) & mask;
+
+      while (keys[i] != null && !keys[i].equals(key)) {
+        i=(i+1) & mask;
+      }
+
+      keys[i]=key;
+      values[i]=entry.getValue();
+    }
+  }
+
+  /**
+   * Creates a resolver for one element of the paths XML, layered
+   * on top of this one.
+   *
+   * @param fixedType if not null, the MIME type to report for
+   *                  everything, regardless of name
+   * @param overrides if not null, extensions (without the leading
+   *                  dot) mapped to the MIME types to use instead
+   *                  of the ones from this resolver
+   * @return the new resolver, or this one if there is nothing to
+   * override
+   */
+  public MimeResolver derive(String fixedType,
+                             Map<String, String> overrides) {
+    if (fixedType == null && (overrides == null || overrides.isEmpty())) {
+      return(this);
+    }
+
+    HashMap<String, String> types=new HashMap<String, String>();
+
+    if (overrides != null) {
+      for (Map.Entry<String, String> entry : overrides.entrySet()) {
+        types.put(toLowerCase(entry.getKey()), entry.getValue());
+      }
+    }
+
+    return(new MimeResolver(this, fixedType, types));
+  }
+
+  /**
+   * @param name a file name or path; only the portion after the
+   *             last slash is considered
+   * @return the MIME type for that name, or null if it is not known
+   */
+  public String getTypeForName(String name) {
+    if (fixedType != null) {
+      return(fixedType);
+    }
+
+    int lastDot=name.lastIndexOf('.');
+
+    if (lastDot<0 || lastDot<name.lastIndexOf('/')) {
+      return(null);
+    }
+
+    return(getTypeForExtension(name, lastDot+1, name.length()));
+  }
+
+  /**
+   * Looks up the extension found in a region of a string. Matching
+   * is case-insensitive.
+   *
+   * @param s a string containing the extension
+   * @param start the index of the first character of the extension
+   * @param end the index after the last character of the extension
+   * @return the MIME type for that extension, or null if it is not
+   * known
+   */
+  public String getTypeForExtension(String s, int start, int end) {
+    if (fixedType != null) {
+      return(fixedType);
+    }
+
+    if (start>=end) {
+      return(null);
+    }
+
+    int len=end-start;
+    int i=hash(s, start, end) & mask;
+    String key;
+
+    while ((key=keys[i]) != null) {
+      if (key.length() == len && key.regionMatches(true, 0, s, start, len)) {
+        return(values[i]);
+      }
+
+      i=(i+1) & mask;
+    }
+
+    if (parent != null) {
+      return(parent.getTypeForExtension(s, start, end));
+    }
+
+    return(MimeTypeMap.getSingleton()
+      .getMimeTypeFromExtension(toLowerCase(s.substring(start, end))));
+  }
+
+  /**
+   * Parses per-extension overrides, as written in the mimeTypes
+   * attribute of the paths XML: comma-separated extension=type
+   * pairs, such as "log=text/plain,md=text/markdown".
+   *
+   * @param spec the attribute value, or null
+   * @return the overrides, or null if spec is null or empty
+   */
+  static HashMap<String, String> parseOverrides(String spec) {
+    if (TextUtils.isEmpty(spec)) {
+      return(null);
+    }
+
+    HashMap<String, String> result=new HashMap<String, String>();
+
+    for (String pair : spec.split(",")) {
+      int split=pair.indexOf('=');
+      String extension=(split<0 ? "" : pair.substring(0, split).trim());
+      String type=(split<0 ? "" : pair.substring(split+1).trim());
+
+      if (extension.startsWith(".")) {
+        extension=extension.substring(1);
+      }
+
+      if (extension.length() == 0 || type.indexOf('/')<1) {
+        throw new IllegalArgumentException("Invalid MIME type override: "+pair);
+      }
+
+      result.put(extension, type);
+    }
+
+    return(result);
+  }
+
+  private static HashMap<String, String> buildCommonTypes() {
+    HashMap<String, String> result=new HashMap<String, String>();
+    MimeTypeMap map=MimeTypeMap.getSingleton();
+
+    for (String extension : COMMON_EXTENSIONS) {
+      String type=map.getMimeTypeFromExtension(extension);
+
+      // leave out anything this device does not know, so it
+      // keeps falling through to MimeTypeMap, as before
+
+      if (type != null) {
+        result.put(extension, type);
+      }
+    }
+
+    return(result);
+  }
+
+  private static int hash(String s, int start, int end) {
+    int h=0;
+
+    for (int i=start;i<end;i++) {
+      char c=s.charAt(i);
+
+      if (c>='A' && c<='Z') {
+        c=(char)(c+('a'-'A'));
+      }
+
+      h=31*h+c;
+    }
+
+    return(h ^ (h>>>16));
+  }
+
+  private static String toLowerCase(String s) {
+    StringBuilder b=null;
+
+    for (int i=0;i<s.length();i++) {
+      char c=s.charAt(i);
+
+      if (c>='A' && c<='Z') {
+        if (b == null) {
+          b=new StringBuilder(s);
+        }
+
+        b.setCharAt(i, (char)(c+('a'-'A')));
+      }
+    }
+
+    return(b == null ? s : b.toString());
+  }
+}
@@ -0,0 +1,222 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.util.Log;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Works out the MIME type of a file from its first few bytes, for
+ * files whose names do not tell us. Results are remembered per
+ * file, keyed by path and checked against the size and
+ * modification time, so the header is read only once for as long
+ * as the file stays the same.
+ */
+final class MimeSniffer {
+  private static final int HEADER_SIZE=16;
+  private static final String NO_TYPE="";
+  private static final String TAG="MimeSniffer";
+
+  private final LinkedHashMap<String, Entry> entries;
+
+  /**
+   * Constructor.
+   *
+   * @param maxEntries the number of files to remember
+   */
+  MimeSniffer(final int maxEntries) {
+    entries=new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return(size()>maxEntries);
+      }
+    };
+  }
+
+  /**
+   * @param resolved the file to examine
+   * @return the MIME type suggested by the file's contents, or
+   * null if it is not recognized
+   */
+  String sniff(ResolvedFile resolved) {
+    if (!resolved.exists() || resolved.isDirectory()) {
+      return(null);
+    }
+
+    String path=resolved.file.getPath();
+    Entry entry;
+
+    synchronized(entries) {
+      entry=entries.get(path);
+    }
+
+    if (entry == null || entry.length != resolved.length() ||
+      entry.lastModified != resolved.lastModified()) {
+      entry=new Entry(resolved.length(), resolved.lastModified(),
+        readType(resolved));
+
+      synchronized(entries) {
+        entries.put(path, entry);
+      }
+    }
+
+    return(entry.type == NO_TYPE ? null : entry.type);
+  }
+
+  private static String readType(ResolvedFile resolved) {
+    byte[] header=new byte[HEADER_SIZE];
+    int total=0;
+
+    try {
+      FileInputStream in=new FileInputStream(resolved.file);
+
+      try {
+        int len;
+
+        while (total<header.length &&
+          (len=in.read(header, total, header.length-total))>=0) {
+          total+=len;
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      Log.w(TAG, "Exception reading header of "+resolved.file, e);
+
+      return(NO_TYPE);
+    }
+
+    String result=match(header, total);
+
+    return(result == null ? NO_TYPE : result);
+  }
+
+  /**
+   * @param header the first bytes of the file
+   * @param len the number of valid bytes in header
+   * @return the MIME type for the signature at the start of
+   * header, or null if there is none that we know
+   */
+  static String match(byte[] header, int len) {
+    if (startsWith(header, len, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+      return("image/png");
+    }
+
+    if (startsWith(header, len, 0, 0xFF, 0xD8, 0xFF)) {
+      return("image/jpeg");
+    }
+
+    if (startsWith(header, len, 0, 'G', 'I', 'F', '8')) {
+      return("image/gif");
+    }
+
+    if (startsWith(header, len, 0, 'R', 'I', 'F', 'F')) {
+      if (startsWith(header, len, 8, 'W', 'E', 'B', 'P')) {
+        return("image/webp");
+      }
+
+      if (startsWith(header, len, 8, 'W', 'A', 'V', 'E')) {
+        return("audio/x-wav");
+      }
+
+      if (startsWith(header, len, 8, 'A', 'V', 'I', ' ')) {
+        return("video/avi");
+      }
+    }
+
+    if (startsWith(header, len, 4, 'f', 't', 'y', 'p')) {
+      if (startsWith(header, len, 8, 'h', 'e', 'i', 'c')) {
+        return("image/heic");
+      }
+
+      if (startsWith(header, len, 8, 'M', '4', 'A', ' ')) {
+        return("audio/mp4");
+      }
+
+      if (startsWith(header, len, 8, '3', 'g', 'p')) {
+        return("video/3gpp");
+      }
+
+      return("video/mp4");
+    }
+
+    if (startsWith(header, len, 0, 0x1A, 0x45, 0xDF, 0xA3)) {
+      return("video/webm");
+    }
+
+    if (startsWith(header, len, 0, 'O', 'g', 'g', 'S')) {
+      return("application/ogg");
+    }
+
+    if (startsWith(header, len, 0, 'I', 'D', '3') ||
+      startsWith(header, len, 0, 0xFF, 0xFB)) {
+      return("audio/mpeg");
+    }
+
+    if (startsWith(header, len, 0, 'f', 'L', 'a', 'C')) {
+      return("audio/flac");
+    }
+
+    if (startsWith(header, len, 0, '%', 'P', 'D', 'F', '-')) {
+      return("application/pdf");
+    }
+
+    if (startsWith(header, len, 0, 'P', 'K', 0x03, 0x04)) {
+      return("application/zip");
+    }
+
+    if (startsWith(header, len, 0, 0x1F, 0x8B)) {
+      return("application/gzip");
+    }
+
+    if (startsWith(header, len, 0, 'B', 'M')) {
+      return("image/bmp");
+    }
+
+    return(null);
+  }
+
+  private static boolean startsWith(byte[] header, int len, int offset,
+                                    int... signature) {
+    if (len<offset+signature.length) {
+      return(false);
+    }
+
+    for (int i=0;i<signature.length;i++) {
+      if ((header[offset+i] & 0xFF) != signature[i]) {
+        return(false);
+      }
+    }
+
+    return(true);
+  }
+
+  private static final class Entry {
+    final long length;
+    final long lastModified;
+    final String type;
+
+    Entry(long length, long lastModified, String type) {
+      this.length=length;
+      this.lastModified=lastModified;
+      this.type=type;
+    }
+  }
+}
@@ -0,0 +1,429 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Content inserted into a LocalPathStrategy that the client has not
+ * finished writing. The content goes into a hidden temporary file
+ * in the same directory, which is renamed to its real name when the
+ * client closes its file descriptor. So, readers see either nothing
+ * or the whole thing, never a partial file.
+ *
+ * If the client said how big the content would be, the temporary
+ * file is preallocated to that size on API Level 21+, so the
+ * filesystem can lay it out in one piece, and so running out of
+ * space fails the insert, not some write partway through. If the
+ * client writes less than that, the file is trimmed to what was
+ * written before it is published. We never see the client's
+ * writes, only its file offset when it closes, so the trim assumes
+ * that the client wrote sequentially. That holds for a client that
+ * opened the content write-only ("w"), which cannot read back what
+ * it wrote and so has no reason to seek. A client that opened it
+ * read-write ("rw") may well have seeked backwards, so its content
+ * is never trimmed, and any preallocated space that it did not
+ * write is published as zeros. Such clients should supply an
+ * accurate SIZE, or none at all.
+ *
+ * If the strategy has a durability policy, the content is synced
+ * before the rename, and the directory after it, regardless of
+ * whether the policy is on-close or batched, as otherwise a crash
+ * could leave a published name pointing at missing content.
+ *
+ * A resumable insert is not published when the client closes, nor
+ * discarded when the client crashes. Its temporary file is named
+ * after the content, rather than randomly, so it can be found again
+ * after our process is restarted. The client reopens it in append
+ * mode to pick up where it left off, and publishes or discards it
+ * explicitly, via commit() or discard(). Resumable inserts are not
+ * preallocated, as append mode writes after the preallocated space.
+ */
+final class PendingInsert {
+  private static final String TAG="PendingInsert";
+  private static final String SUFFIX=".pending";
+  private static final String RESUMABLE_SUFFIX=".upload";
+  private static final long COMMIT_WAIT_MS=2000;
+  final File target;
+  final File temp;
+  final boolean resumable;
+  private final long size;
+  private boolean finished=false;
+  private int openCount=0;
+
+  /**
+   * Creates the temporary file for a new piece of content.
+   *
+   * @param dir the directory that will hold the content
+   * @param name the name of the content
+   * @param size the expected size of the content, in bytes, or 0 if
+   *             it is unknown
+   * @param resumable true if the content is published by commit(),
+   *                  rather than when the client closes
+   * @return the pending insert
+   * @throws IOException if the file could not be created or
+   * preallocated, such as when there is not enough space
+   */
+  static PendingInsert create(File dir, String name, long size,
+                              boolean resumable)
+    throws IOException {
+    if (resumable) {
+      File temp=getResumableTemp(new File(dir, name));
+
+      if (!temp.createNewFile()) {
+        throw new IOException("Upload already exists: "+name);
+      }
+
+      return(new PendingInsert(new File(dir, name), temp, 0, true));
+    }
+
+    File temp=File.createTempFile("."+name+".", SUFFIX, dir);
+
+    try {
+      if (size>0) {
+        preallocate(temp, size);
+      }
+    }
+    catch (IOException e) {
+      temp.delete();
+      throw e;
+    }
+
+    return(new PendingInsert(new File(dir, name), temp, size, false));
+  }
+
+  /**
+   * Finds a resumable insert left over from an earlier run of our
+   * process.
+   *
+   * @param target the file that the content is destined for
+   * @return the pending insert, or null if there is none
+   */
+  static PendingInsert recover(File target) {
+    File temp=getResumableTemp(target);
+
+    if (temp.exists()) {
+      return(new PendingInsert(target, temp, 0, true));
+    }
+
+    return(null);
+  }
+
+  /**
+   * @param name the name of a file
+   * @return true if this is the name of one of our temporary
+   * files, which should not be listed
+   */
+  static boolean isTempName(String name) {
+    return(name.startsWith(".") &&
+      (name.endsWith(SUFFIX) || name.endsWith(RESUMABLE_SUFFIX)));
+  }
+
+  private static File getResumableTemp(File target) {
+    return(new File(target.getParentFile(),
+      "."+target.getName()+RESUMABLE_SUFFIX));
+  }
+
+  private PendingInsert(File target, File temp, long size,
+                        boolean resumable) {
+    this.target=target;
+    this.temp=temp;
+    this.size=size;
+    this.resumable=resumable;
+  }
+
+  /**
+   * @return true if a client has the temporary file open
+   */
+  synchronized boolean isOpen() {
+    return(openCount>0);
+  }
+
+  /**
+   * Opens the temporary file for the client. Unless this insert is
+   * resumable, the content is published when the returned file
+   * descriptor is closed, or discarded if the client crashes before
+   * then. A resumable insert is only synced, if durable is true.
+   *
+   * @param mode ParcelFileDescriptor mode bits, from modeToMode()
+   * @param durable true if the content should be synced before it
+   *                is published
+   * @param listener told when the insert is finished, one way or
+   *                 the other
+   * @return the file descriptor to hand to the client
+   * @throws IOException
+   */
+  @TargetApi(Build.VERSION_CODES.KITKAT)
+  ParcelFileDescriptor open(int mode, final boolean durable,
+                            final OnFinishedListener listener)
+    throws IOException {
+    final AtomicReference<ParcelFileDescriptor> tracker=
+      new AtomicReference<ParcelFileDescriptor>();
+    final boolean trimmable=canTrim(mode);
+    // "w" on a resumable insert starts it over; otherwise, the
+    // temporary file is new, and truncating would lose the
+    // preallocation
+    ParcelFileDescriptor result=ParcelFileDescriptor.open(temp,
+      resumable ? mode : mode & ~ParcelFileDescriptor.MODE_TRUNCATE,
+      FileSyncer.getHandler(),
+      new ParcelFileDescriptor.OnCloseListener() {
+        @Override
+        public void onClose(final IOException e) {
+          synchronized(PendingInsert.this) {
+            openCount--;
+            PendingInsert.this.notifyAll();
+          }
+
+          // syncing can be slow, so it gets a thread of its own,
+          // rather than delaying other close notifications
+          FileSyncer.getSyncHandler().post(new Runnable() {
+            @Override
+            public void run() {
+              onClosed(e, tracker.get(), trimmable, durable, listener);
+            }
+          });
+        }
+      });
+
+    if (durable || canTrim(mode)) {
+      // shares the client's file offset, which tells us where the
+      // client stopped writing, so we can trim the preallocation,
+      // and lets us sync the content after the client closes
+      try {
+        tracker.set(result.dup());
+      }
+      catch (IOException e) {
+        Log.w(TAG, "Cannot trim or sync "+target.getName()+" when published", e);
+      }
+    }
+
+    synchronized(this) {
+      openCount++;
+    }
+
+    return(result);
+  }
+
+  private void onClosed(IOException e, ParcelFileDescriptor tracker,
+                        boolean trimmable, boolean durable,
+                        OnFinishedListener listener) {
+    boolean published=false;
+
+    if (resumable) {
+      if (durable && tracker != null) {
+        syncQuietly(tracker.getFileDescriptor());
+      }
+
+      closeQuietly(tracker);
+
+      return;
+    }
+
+    if (e == null) {
+      published=publish(tracker, trimmable, durable);
+    }
+    else {
+      Log.w(TAG, "Discarding "+target.getName(), e);
+      discard();
+    }
+
+    closeQuietly(tracker);
+    listener.onFinished(this, published);
+  }
+
+  /**
+   * Publishes a resumable insert. Close notifications arrive
+   * asynchronously, so a client that closes and immediately commits
+   * may get here first; hence, we wait a bit for them.
+   *
+   * @param durable true if the rename should be synced
+   * @return true if the content was published, false otherwise
+   * @throws IllegalStateException if a client is still writing the
+   * content
+   */
+  synchronized boolean commit(boolean durable) {
+    long deadline=SystemClock.uptimeMillis()+COMMIT_WAIT_MS;
+    long remaining=COMMIT_WAIT_MS;
+
+    while (openCount>0 && remaining>0) {
+      try {
+        wait(remaining);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+
+      remaining=deadline-SystemClock.uptimeMillis();
+    }
+
+    if (openCount>0) {
+      throw new IllegalStateException("Still being written: "+target.getName());
+    }
+
+    // the sync after the last client closed may not have happened
+    // yet, so we do our own
+    if (durable && !finished) {
+      syncFile();
+    }
+
+    return(publish(null, false, durable));
+  }
+
+  /**
+   * Throws away the content, if it has not been published yet.
+   */
+  synchronized void discard() {
+    if (!finished) {
+      finished=true;
+      temp.delete();
+    }
+  }
+
+  private synchronized boolean publish(ParcelFileDescriptor tracker,
+                                       boolean trimmable,
+                                       boolean durable) {
+    if (finished) {
+      return(false);
+    }
+
+    finished=true;
+
+    if (tracker != null) {
+      if (trimmable) {
+        trim(tracker.getFileDescriptor());
+      }
+
+      if (durable) {
+        syncQuietly(tracker.getFileDescriptor());
+      }
+    }
+
+    if (temp.renameTo(target)) {
+      if (durable) {
+        FileSyncer.syncDirectory(target.getParentFile());
+      }
+
+      return(true);
+    }
+
+    Log.e(TAG, "Could not publish "+target.getName());
+    temp.delete();
+
+    return(false);
+  }
+
+  private void syncFile() {
+    try {
+      FileOutputStream out=new FileOutputStream(temp, true);
+
+      try {
+        FileSyncer.sync(out.getFD());
+      }
+      finally {
+        out.close();
+      }
+    }
+    catch (IOException e) {
+      Log.e(TAG, "Could not sync "+target.getName(), e);
+    }
+  }
+
+  private void syncQuietly(FileDescriptor fd) {
+    try {
+      FileSyncer.sync(fd);
+    }
+    catch (IOException e) {
+      Log.e(TAG, "Could not sync "+target.getName(), e);
+    }
+  }
+
+  /**
+   * @param mode ParcelFileDescriptor mode bits for a client's open
+   * @return true if the client's file offset, once it closes, is
+   * where its content ends, as explained in the class documentation
+   */
+  private boolean canTrim(int mode) {
+    return(size>0 && Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP &&
+      (mode & ParcelFileDescriptor.MODE_READ_WRITE) ==
+        ParcelFileDescriptor.MODE_WRITE_ONLY);
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private void trim(FileDescriptor fd) {
+    try {
+      long written=Os.lseek(fd, 0, OsConstants.SEEK_CUR);
+
+      if (written<size) {
+        Os.ftruncate(fd, written);
+      }
+    }
+    catch (ErrnoException e) {
+      Log.w(TAG, "Could not trim "+target.getName(), e);
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private static void preallocate(File file, long size)
+    throws IOException {
+    if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP) {
+      FileOutputStream out=new FileOutputStream(file);
+
+      try {
+        Os.posix_fallocate(out.getFD(), 0, size);
+      }
+      catch (ErrnoException e) {
+        // some filesystems cannot preallocate, which is not fatal
+        if (e.errno != OsConstants.EOPNOTSUPP &&
+          e.errno != OsConstants.ENOSYS) {
+          throw new IOException("Could not allocate "+size+" bytes", e);
+        }
+      }
+      finally {
+        out.close();
+      }
+    }
+  }
+
+  private static void closeQuietly(ParcelFileDescriptor pfd) {
+    if (pfd != null) {
+      try {
+        pfd.close();
+      }
+      catch (IOException e) {
+        Log.w(TAG, "Exception closing tracking descriptor", e);
+      }
+    }
+  }
+
+  /**
+   * Told when a pending insert has been published or discarded.
+   */
+  interface OnFinishedListener {
+    void onFinished(PendingInsert insert, boolean published);
+  }
+}
@@ -0,0 +1,638 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+import android.util.Log;
+import android.util.MutableLong;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One copy of content through a pipe, run by a TransferScheduler:
+ * either into the write end of a pipe that the client reads, or
+ * out of the read end of a pipe that the client writes. Whatever
+ * happens, the source and our end of the pipe are closed when the
+ * transfer ends, and the transfer is removed from the scheduler's
+ * list of active transfers.
+ *
+ * A transfer stops early if it is cancelled, if the client closes
+ * its end of the pipe, or if the client stops reading (or writing)
+ * for longer than the scheduler's idle timeout. On API Level 21+,
+ * the transfer waits on the pipe using poll() and only moves what
+ * the pipe can take or give without blocking, so all three are
+ * noticed within a fraction of a second, even if the client never
+ * touches the pipe again. On older devices, reads and writes block
+ * until the client acts, so the transfer only notices a
+ * cancellation between them, and the idle timeout is not
+ * enforced. Only time spent waiting on the client counts toward
+ * the idle timeout, so a transfer may take as long as it likes to
+ * produce or consume content between reads and writes.
+ *
+ * Outbound transfers need the write end of the pipe to be
+ * non-blocking for that, as a blocking write of more than fits
+ * would wait for the client regardless of poll(). Where the device
+ * does not let us make the pipe non-blocking, writes simply block,
+ * a chunk at a time, as on older devices, and the idle timeout is
+ * not enforced for them (see canTimeOut()). Either way, each write
+ * hands the kernel a whole chunk, sized to the pipe's capacity.
+ */
+public abstract class PipeTransfer implements Runnable {
+  private static final String TAG="PipeTransfer";
+  private static final AtomicLong NEXT_ID=new AtomicLong();
+  private static final int POLL_SLICE_MS=250;
+
+  private final long id=NEXT_ID.incrementAndGet();
+  private final String description;
+  private final ParcelFileDescriptor pipe;
+  private TransferScheduler scheduler;
+  private FileOutputStream pipeOutput;
+  private FileInputStream pipeInput;
+  private boolean nonBlocking=false;
+  private int capacity=-1;
+  private volatile boolean cancelled=false;
+  private volatile String abortReason=null;
+  private volatile boolean running=false;
+  private volatile long bytesTransferred=0;
+  private volatile long writeCount=0;
+  private volatile long lastProgress=SystemClock.elapsedRealtime();
+
+  /**
+   * Constructor.
+   *
+   * @param description what is being transferred (e.g., the Uri)
+   * @param pipe our end of the pipe: the write end for content
+   *             going to the client, the read end for content
+   *             coming from it
+   */
+  PipeTransfer(String description, ParcelFileDescriptor pipe) {
+    this.description=description;
+    this.pipe=pipe;
+  }
+
+  /**
+   * Moves the content through the pipe, using write() or
+   * sendfile() for content going to the client, or read() for
+   * content coming from it.
+   *
+   * @throws IOException
+   */
+  abstract void transfer() throws IOException;
+
+  /**
+   * Releases whatever the content is being read from.
+   *
+   * @throws IOException
+   */
+  abstract void closeSource() throws IOException;
+
+  /**
+   * @return an ID for this transfer, unique within the process
+   */
+  public long getId() {
+    return(id);
+  }
+
+  /**
+   * @return what is being transferred (e.g., the Uri)
+   */
+  public String getDescription() {
+    return(description);
+  }
+
+  /**
+   * @return true if the transfer is running, false if it is still
+   * waiting for a thread
+   */
+  public boolean isRunning() {
+    return(running);
+  }
+
+  /**
+   * @return the number of bytes moved through the pipe so far
+   */
+  public long getBytesTransferred() {
+    return(bytesTransferred);
+  }
+
+  /**
+   * @return the number of writes (or sendfile() calls) that put
+   * data into the pipe so far, or the number of reads that took
+   * data out of it, for content coming from the client; fewer of
+   * them for the same number of bytes means fewer wakeups
+   */
+  public long getWriteCount() {
+    return(writeCount);
+  }
+
+  /**
+   * @return the capacity of the pipe, in bytes, or -1 if it could
+   * not be determined
+   */
+  public int getPipeCapacity() {
+    return(capacity);
+  }
+
+  /**
+   * @return the number of milliseconds since the transfer last
+   * moved anything through the pipe (or since it was created, if
+   * it has not moved anything yet)
+   */
+  public long getIdleMillis() {
+    return(SystemClock.elapsedRealtime()-lastProgress);
+  }
+
+  /**
+   * Asks the transfer to stop. The client sees the stream end
+   * early. A transfer that has not started yet will not start.
+   */
+  public void cancel() {
+    cancelled=true;
+  }
+
+  /**
+   * @return true if cancel() has been called, or the transfer
+   * stopped because the client closed the stream or stopped
+   * reading, false otherwise
+   */
+  public boolean isCancelled() {
+    return(cancelled);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final void run() {
+    running=true;
+    lastProgress=SystemClock.elapsedRealtime();
+
+    try {
+      if (!cancelled) {
+        if (canPoll()) {
+          capacity=Pipes.getCapacity(pipe);
+          nonBlocking=Pipes.setNonBlocking(pipe);
+        }
+
+        transfer();
+      }
+    }
+    catch (TransferStoppedException e) {
+      Log.w(TAG, "Stopped transfer of "+description+": "+e.getMessage());
+    }
+    catch (IOException e) {
+      Log.e(TAG, "Exception transferring "+description, e);
+    }
+    finally {
+      try {
+        closeSource();
+      }
+      catch (IOException e) {
+        Log.e(TAG, "Exception closing source of "+description, e);
+      }
+
+      try {
+        closePipe();
+      }
+      catch (IOException e) {
+        Log.e(TAG, "Exception closing pipe for "+description, e);
+      }
+
+      running=false;
+
+      if (scheduler != null) {
+        scheduler.remove(this);
+      }
+    }
+  }
+
+  /**
+   * Called by the TransferScheduler when the transfer is submitted.
+   */
+  void attach(TransferScheduler scheduler) {
+    this.scheduler=scheduler;
+  }
+
+  /**
+   * @return the TransferScheduler running this transfer
+   */
+  TransferScheduler getScheduler() {
+    return(scheduler);
+  }
+
+  /**
+   * @return our end of the pipe
+   */
+  ParcelFileDescriptor getPipe() {
+    return(pipe);
+  }
+
+  /**
+   * Stops the transfer, telling the client why, where the pipe
+   * supports that (see ParcelFileDescriptor.createReliablePipe()).
+   *
+   * @param reason the message for the client
+   */
+  final void abort(String reason) {
+    abortReason=reason;
+    cancelled=true;
+  }
+
+  /**
+   * @return true if this transfer reads content from the client,
+   * rather than writing content to it, so the TransferScheduler
+   * can keep the two from competing for threads
+   */
+  boolean isInbound() {
+    return(false);
+  }
+
+  /**
+   * @return true if this device lets us wait for room in the pipe
+   * with poll(), false if writes simply block
+   */
+  static boolean canPoll() {
+    return(Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP);
+  }
+
+  /**
+   * @return true if transfers can wait on the pipe without blocking
+   * in both directions, and so can enforce the idle timeout, false
+   * if outbound transfers block until the client reads
+   */
+  static boolean canTimeOut() {
+    return(canPoll() && Pipes.canSetNonBlocking());
+  }
+
+  /**
+   * Writes all of the given bytes to the pipe.
+   *
+   * @throws IOException if the transfer should stop
+   */
+  final void write(byte[] buf, int offset, int count) throws IOException {
+    if (nonBlocking) {
+      writePolled(buf, offset, count);
+    }
+    else {
+      checkCancelled();
+
+      if (pipeOutput == null) {
+        pipeOutput=new FileOutputStream(pipe.getFileDescriptor());
+      }
+
+      try {
+        pipeOutput.write(buf, offset, count);
+      }
+      catch (IOException e) {
+        cancelled=true;
+
+        throw e;
+      }
+
+      onProgress(count);
+    }
+  }
+
+  /**
+   * Waits for room in the pipe, then sends up to count bytes
+   * from the file, starting at offset. If the pipe could not be
+   * made non-blocking, this blocks until the client has read
+   * enough for everything to fit. Only for use when canPoll() is
+   * true.
+   *
+   * @return the number of bytes sent, 0 at the end of the file
+   * @throws IOException if the transfer should stop
+   */
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  final long sendfile(FileDescriptor in, MutableLong offset, long count)
+    throws IOException {
+    FileDescriptor out=pipe.getFileDescriptor();
+
+    while (true) {
+      if (nonBlocking) {
+        awaitReady(out, false);
+      }
+      else {
+        checkCancelled();
+      }
+
+      try {
+        long result=Os.sendfile(out, in, offset,
+          Math.min(count, getChunkSize()));
+
+        onProgress(result);
+
+        return(result);
+      }
+      catch (ErrnoException e) {
+        if (e.errno != OsConstants.EINTR && e.errno != OsConstants.EAGAIN) {
+          throw toIOException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads from the pipe, for content coming from the client.
+   *
+   * @return the number of bytes read, or -1 once the client has
+   * closed its end of the pipe
+   * @throws IOException if the transfer should stop, or if the
+   * client crashed or reported an error, rather than finishing
+   * normally (on API Level 19+)
+   */
+  final int read(byte[] buf, int offset, int count) throws IOException {
+    int result;
+
+    if (canPoll()) {
+      result=readPolled(buf, offset, count);
+    }
+    else {
+      checkCancelled();
+
+      if (pipeInput == null) {
+        pipeInput=new FileInputStream(pipe.getFileDescriptor());
+      }
+
+      try {
+        result=pipeInput.read(buf, offset, count);
+      }
+      catch (IOException e) {
+        cancelled=true;
+
+        throw e;
+      }
+    }
+
+    if (result<0) {
+      checkPeer();
+    }
+    else {
+      onProgress(result);
+    }
+
+    return(result);
+  }
+
+  /**
+   * Records that bytes were moved through the pipe.
+   */
+  final void onProgress(long count) {
+    if (count>0) {
+      writeCount++;
+      bytesTransferred+=count;
+      lastProgress=SystemClock.elapsedRealtime();
+    }
+  }
+
+  /**
+   * @throws TransferStoppedException if the transfer was cancelled
+   */
+  final void checkCancelled() throws TransferStoppedException {
+    if (cancelled) {
+      throw new TransferStoppedException("Cancelled");
+    }
+  }
+
+  /**
+   * @return how many bytes to move per write: half of the pipe's
+   * capacity, so the client can drain one half while the other is
+   * filled, but no less than TransferScheduler.BUFFER_SIZE
+   */
+  final int getChunkSize() {
+    if (capacity<=0) {
+      return(TransferScheduler.BUFFER_SIZE);
+    }
+
+    return(Math.max(TransferScheduler.BUFFER_SIZE, capacity/2));
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private void writePolled(byte[] buf, int offset, int count)
+    throws IOException {
+    FileDescriptor out=pipe.getFileDescriptor();
+
+    while (count>0) {
+      awaitReady(out, false);
+
+      try {
+        int written=Os.write(out, buf, offset,
+          Math.min(count, getChunkSize()));
+
+        offset+=written;
+        count-=written;
+        onProgress(written);
+      }
+      catch (ErrnoException e) {
+        if (e.errno != OsConstants.EINTR && e.errno != OsConstants.EAGAIN) {
+          throw toIOException(e);
+        }
+      }
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private int readPolled(byte[] buf, int offset, int count)
+    throws IOException {
+    FileDescriptor in=pipe.getFileDescriptor();
+
+    while (true) {
+      awaitReady(in, true);
+
+      try {
+        int result=Os.read(in, buf, offset, count);
+
+        return(result == 0 && count>0 ? -1 : result);
+      }
+      catch (ErrnoException e) {
+        if (e.errno != OsConstants.EINTR && e.errno != OsConstants.EAGAIN) {
+          throw toIOException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * At the end of content coming from the client, confirms that
+   * the client closed its end normally, where the pipe can tell.
+   */
+  @TargetApi(Build.VERSION_CODES.KITKAT)
+  private void checkPeer() throws IOException {
+    if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.KITKAT &&
+      pipe.canDetectErrors()) {
+      try {
+        pipe.checkError();
+      }
+      catch (IOException e) {
+        cancelled=true;
+
+        throw e;
+      }
+    }
+  }
+
+  private void closePipe() throws IOException {
+    if (abortReason != null &&
+      Build.VERSION.SDK_INT>=Build.VERSION_CODES.KITKAT) {
+      closePipeWithError(abortReason);
+    }
+    else {
+      pipe.close();
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.KITKAT)
+  private void closePipeWithError(String reason) throws IOException {
+    if (pipe.canDetectErrors()) {
+      pipe.closeWithError(reason);
+    }
+    else {
+      pipe.close();
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private void awaitReady(FileDescriptor fd, boolean reading)
+    throws IOException {
+    StructPollfd pollfd=new StructPollfd();
+    StructPollfd[] pollfds={ pollfd };
+    long idleTimeout=(scheduler == null ? 0 : scheduler.getIdleTimeout());
+    long waitStart=SystemClock.elapsedRealtime();
+
+    pollfd.fd=fd;
+    pollfd.events=(short)(reading ? OsConstants.POLLIN : OsConstants.POLLOUT);
+
+    while (true) {
+      checkCancelled();
+
+      if (idleTimeout>0 &&
+        SystemClock.elapsedRealtime()-waitStart>=idleTimeout) {
+        throw stop(reading ? "Client stopped writing" : "Client stopped reading");
+      }
+
+      pollfd.revents=0;
+
+      try {
+        if (Os.poll(pollfds, POLL_SLICE_MS)>0) {
+          if (reading) {
+            // POLLHUP means the client is done writing, and the
+            // read will return the rest of the data, then EOF
+
+            if ((pollfd.revents & (OsConstants.POLLIN | OsConstants.POLLHUP))!=0) {
+              return;
+            }
+
+            if ((pollfd.revents & (OsConstants.POLLERR | OsConstants.POLLNVAL))!=0) {
+              throw stop("Pipe failed");
+            }
+          }
+          else {
+            if (isHangup(pollfd.revents)) {
+              throw stop("Client closed the stream");
+            }
+
+            if ((pollfd.revents & OsConstants.POLLOUT)!=0) {
+              return;
+            }
+          }
+        }
+      }
+      catch (ErrnoException e) {
+        if (e.errno != OsConstants.EINTR) {
+          throw toIOException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks, without waiting, whether the client has closed its end
+   * of the pipe, for use by code that wants to know before it
+   * next writes. Only works on API Level 21+; on older devices,
+   * this only reports a cancelled transfer.
+   *
+   * @return true if the transfer cannot continue, false otherwise
+   */
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  final boolean checkClientGone() {
+    if (!cancelled && canPoll()) {
+      StructPollfd pollfd=new StructPollfd();
+
+      pollfd.fd=pipe.getFileDescriptor();
+      pollfd.events=(short)OsConstants.POLLOUT;
+
+      try {
+        if (Os.poll(new StructPollfd[] { pollfd }, 0)>0 &&
+          isHangup(pollfd.revents)) {
+          cancelled=true;
+        }
+      }
+      catch (ErrnoException e) {
+        // find out on the next write
+      }
+    }
+
+    return(cancelled);
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private static boolean isHangup(short revents) {
+    return((revents &
+      (OsConstants.POLLERR | OsConstants.POLLHUP | OsConstants.POLLNVAL))!=0);
+  }
+
+  /**
+   * Marks the transfer as over, as the client went away or timed
+   * out, so isCancelled() reports it.
+   */
+  private TransferStoppedException stop(String reason) {
+    cancelled=true;
+
+    return(new TransferStoppedException(reason));
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private IOException toIOException(ErrnoException e) {
+    if (e.errno == OsConstants.EPIPE) {
+      return(stop("Client closed the stream"));
+    }
+
+    IOException result=new IOException(e.getMessage());
+
+    result.initCause(e);
+
+    return(result);
+  }
+
+  /**
+   * Thrown when a transfer stops for an expected reason, such as
+   * the client going away, so it is not logged as an error.
+   */
+  static class TransferStoppedException extends IOException {
+    TransferStoppedException(String message) {
+      super(message);
+    }
+  }
+}
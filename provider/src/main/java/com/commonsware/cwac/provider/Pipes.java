@@ -0,0 +1,170 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.system.OsConstants;
+import android.util.Log;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/**
+ * Creates and tunes the pipes used by AbstractTransferStrategy.
+ * Changing a pipe's capacity and blocking mode needs fcntl(),
+ * which android.system.Os only exposes as fcntlInt() on API
+ * Level 30+, and as a hidden method from API Level 21. So, that
+ * is looked up via reflection, and if it is unavailable, the pipe
+ * is simply left as it is.
+ */
+final class Pipes {
+  private static final String TAG="Pipes";
+  // from <linux/fcntl.h>; not in OsConstants
+  private static final int F_SETPIPE_SZ=1031;
+  private static final int F_GETPIPE_SZ=1032;
+  private static Method fcntlInt=null;
+  private static boolean fcntlIntLookedUp=false;
+
+  private Pipes() {
+    // static methods only
+  }
+
+  /**
+   * Creates a pipe, with a larger capacity if requested and
+   * supported by the device.
+   *
+   * @param capacity requested capacity of the pipe, in bytes, or
+   *                 0 for the kernel default
+   * @return the read end and the write end of the pipe
+   * @throws IOException
+   */
+  static ParcelFileDescriptor[] createPipe(int capacity)
+    throws IOException {
+    return(setCapacity(ParcelFileDescriptor.createPipe(), capacity));
+  }
+
+  /**
+   * Creates a pipe for content that the client writes to us. On
+   * API Level 19+, this is a reliable pipe, so we can tell a client
+   * that finished writing from one that crashed, and the client
+   * can find out why we stopped reading, if we abort.
+   *
+   * @param capacity requested capacity of the pipe, in bytes, or
+   *                 0 for the kernel default
+   * @return the read end and the write end of the pipe
+   * @throws IOException
+   */
+  @TargetApi(Build.VERSION_CODES.KITKAT)
+  static ParcelFileDescriptor[] createInboundPipe(int capacity)
+    throws IOException {
+    if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.KITKAT) {
+      return(setCapacity(ParcelFileDescriptor.createReliablePipe(),
+        capacity));
+    }
+
+    return(createPipe(capacity));
+  }
+
+  private static ParcelFileDescriptor[] setCapacity(
+    ParcelFileDescriptor[] result, int capacity) {
+    if (capacity>0) {
+      try {
+        fcntl(result[1].getFileDescriptor(), F_SETPIPE_SZ, capacity);
+      }
+      catch (Exception e) {
+        Log.w(TAG, "Could not set pipe capacity to "+capacity, e);
+      }
+    }
+
+    return(result);
+  }
+
+  /**
+   * @param pfd either end of a pipe
+   * @return the capacity of the pipe, in bytes, or -1 if it cannot
+   * be determined
+   */
+  static int getCapacity(ParcelFileDescriptor pfd) {
+    try {
+      return(fcntl(pfd.getFileDescriptor(), F_GETPIPE_SZ, 0));
+    }
+    catch (Exception e) {
+      return(-1);
+    }
+  }
+
+  /**
+   * @return true if setNonBlocking() can work on this device
+   */
+  static boolean canSetNonBlocking() {
+    return(getFcntlInt() != null);
+  }
+
+  /**
+   * Puts the write end of a pipe into non-blocking mode, so
+   * writes take whatever fits and return, rather than waiting
+   * for the reader. This does not affect the read end.
+   *
+   * @param pfd the write end of a pipe
+   * @return true if the pipe is now non-blocking, false otherwise
+   */
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  static boolean setNonBlocking(ParcelFileDescriptor pfd) {
+    FileDescriptor fd=pfd.getFileDescriptor();
+
+    try {
+      int flags=fcntl(fd, OsConstants.F_GETFL, 0);
+
+      fcntl(fd, OsConstants.F_SETFL, flags | OsConstants.O_NONBLOCK);
+
+      return(true);
+    }
+    catch (Exception e) {
+      return(false);
+    }
+  }
+
+  private static int fcntl(FileDescriptor fd, int cmd, int arg)
+    throws Exception {
+    Method method=getFcntlInt();
+
+    if (method == null) {
+      throw new UnsupportedOperationException("fcntl() is not available");
+    }
+
+    return((Integer)method.invoke(null, fd, cmd, arg));
+  }
+
+  private static synchronized Method getFcntlInt() {
+    if (!fcntlIntLookedUp) {
+      fcntlIntLookedUp=true;
+
+      if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP) {
+        try {
+          fcntlInt=Class.forName("android.system.Os")
+            .getMethod("fcntlInt", FileDescriptor.class, int.class,
+              int.class);
+        }
+        catch (Exception e) {
+          Log.w(TAG, "fcntlInt() is not available", e);
+        }
+      }
+    }
+
+    return(fcntlInt);
+  }
+}
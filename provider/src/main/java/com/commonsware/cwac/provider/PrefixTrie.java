@@ -0,0 +1,172 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import java.util.Arrays;
+
+/**
+ * Character trie, used to find the longest registered key that
+ * is a prefix of some string. All allocation happens in put();
+ * lookups only walk the existing nodes, so they are cheap enough
+ * to perform on every provider call.
+ *
+ * Not thread-safe for concurrent put() calls. Populate it fully,
+ * then publish it (e.g., via a volatile or final field) to the
+ * threads that perform lookups.
+ */
+final class PrefixTrie<T> {
+  private final Node<T> root=new Node<T>();
+  private int size=0;
+
+  /**
+   * Registers a key. If the key was already registered, its
+   * value is replaced.
+   *
+   * @param key the prefix to register
+   * @param value the value to return for strings starting with
+   *              that prefix
+   */
+  void put(String key, T value) {
+    Node<T> node=root;
+
+    for (int i=0;i<key.length();i++) {
+      node=node.getOrCreateChild(key.charAt(i));
+    }
+
+    if (!node.hasValue) {
+      size++;
+    }
+
+    node.value=value;
+    node.hasValue=true;
+  }
+
+  /**
+   * @return the number of registered keys
+   */
+  int size() {
+    return(size);
+  }
+
+  /**
+   * Finds the value for the longest registered key that is a
+   * prefix of s, starting at offset start.
+   *
+   * @param s the string to examine
+   * @param start the offset in s at which keys should start
+   * @param boundary if non-zero, a key only matches if it
+   *                 is followed in s by this character or by
+   *                 the end of s (e.g., '/' to match on whole
+   *                 path segments)
+   * @return the value of the longest matching key, or null if
+   * there is none
+   */
+  T findLongestPrefix(String s, int start, char boundary) {
+    Node<T> node=root;
+    Node<T> best=null;
+    int len=s.length();
+
+    if (node.hasValue && isBoundary(s, start, boundary)) {
+      best=node;
+    }
+
+    for (int i=start;i<len && node!=null;i++) {
+      node=node.getChild(s.charAt(i));
+
+      if (node!=null && node.hasValue && isBoundary(s, i+1, boundary)) {
+        best=node;
+      }
+    }
+
+    return(best==null ? null : best.value);
+  }
+
+  /**
+   * Same as findLongestPrefix(), but returns the length of the
+   * matching key instead of its value.
+   *
+   * @return the length of the longest matching key, or -1 if
+   * there is none
+   */
+  int findLongestPrefixLength(String s, int start, char boundary) {
+    Node<T> node=root;
+    int best=-1;
+    int len=s.length();
+
+    if (node.hasValue && isBoundary(s, start, boundary)) {
+      best=0;
+    }
+
+    for (int i=start;i<len && node!=null;i++) {
+      node=node.getChild(s.charAt(i));
+
+      if (node!=null && node.hasValue && isBoundary(s, i+1, boundary)) {
+        best=i+1-start;
+      }
+    }
+
+    return(best);
+  }
+
+  private static boolean isBoundary(String s, int index, char boundary) {
+    return(boundary==0 || index==s.length() || s.charAt(index)==boundary);
+  }
+
+  private static final class Node<T> {
+    private static final char[] NO_KEYS=new char[0];
+
+    char[] keys=NO_KEYS;
+    Node<T>[] children=null;
+    T value;
+    boolean hasValue=false;
+
+    Node<T> getChild(char c) {
+      int index=Arrays.binarySearch(keys, c);
+
+      return(index<0 ? null : children[index]);
+    }
+
+    @SuppressWarnings("unchecked")
+    Node<T> getOrCreateChild(char c) {
+      int index=Arrays.binarySearch(keys, c);
+
+      if (index>=0) {
+        return(children[index]);
+      }
+
+      int insertAt=-(index+1);
+      char[] newKeys=new char[keys.length+1];
+      Node<T>[] newChildren=(Node<T>[])new Node[keys.length+1];
+      Node<T> child=new Node<T>();
+
+      System.arraycopy(keys, 0, newKeys, 0, insertAt);
+      System.arraycopy(keys, insertAt, newKeys, insertAt+1,
+        keys.length-insertAt);
+      newKeys[insertAt]=c;
+
+      if (children!=null) {
+        System.arraycopy(children, 0, newChildren, 0, insertAt);
+        System.arraycopy(children, insertAt, newChildren, insertAt+1,
+          children.length-insertAt);
+      }
+
+      newChildren[insertAt]=child;
+      keys=newKeys;
+      children=newChildren;
+
+      return(child);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Where an AbstractProducerStrategy writes its content: straight
+ * into the pipe to the client, with nothing buffered in between.
+ * Usable as either an OutputStream or a WritableByteChannel.
+ *
+ * Writes wait while the pipe is full, so a producer never gets
+ * ahead of its client by more than the pipe's capacity. Once the
+ * client closes its end of the pipe, or the transfer is cancelled
+ * or times out, writes throw an IOException. isCancelled() reports
+ * the same thing without writing, for producers that want to check
+ * before doing expensive work (on older devices, it only notices a
+ * cancel() and failed writes, not a client closing the stream).
+ */
+public final class ProducerOutputStream extends OutputStream
+  implements WritableByteChannel {
+  private final PipeTransfer transfer;
+  private final byte[] one=new byte[1];
+  private byte[] scratch=null;
+  private boolean closed=false;
+
+  ProducerOutputStream(PipeTransfer transfer) {
+    this.transfer=transfer;
+  }
+
+  /**
+   * @return true if the client has gone away or the transfer was
+   * cancelled, so further writes will fail
+   */
+  public boolean isCancelled() {
+    return(transfer.checkClientGone());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(int b) throws IOException {
+    one[0]=(byte)b;
+    write(one, 0, 1);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(byte[] buf, int offset, int count)
+    throws IOException {
+    checkOpen();
+    transfer.write(buf, offset, count);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    checkOpen();
+
+    int result=src.remaining();
+
+    if (src.hasArray()) {
+      transfer.write(src.array(), src.arrayOffset()+src.position(), result);
+      src.position(src.limit());
+    }
+    else {
+      if (scratch == null) {
+        scratch=new byte[transfer.getChunkSize()];
+      }
+
+      while (src.hasRemaining()) {
+        int count=Math.min(src.remaining(), scratch.length);
+
+        src.get(scratch, 0, count);
+        transfer.write(scratch, 0, count);
+      }
+    }
+
+    return(result);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isOpen() {
+    return(!closed);
+  }
+
+  /**
+   * Stops further writes. The pipe itself is closed when the
+   * producer returns, whether or not this is called.
+   */
+  @Override
+  public void close() {
+    closed=true;
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+  }
+}
@@ -34,8 +34,14 @@ class RawResourceStrategy extends AFDStrategy {
    * @param ctxt any Context will do; strategy holds onto
    *             Application
    * @param path name of the raw resource to serve up
+   * @param mimeResolver maps names to MIME types
+   * @param transferScheduler runs the transfers into pipes
+   * @param pipeCapacity requested capacity of each pipe, or 0
    */
-  RawResourceStrategy(Context ctxt, String path) {
+  RawResourceStrategy(Context ctxt, String path,
+                      MimeResolver mimeResolver,
+                      TransferScheduler transferScheduler, int pipeCapacity) {
+    super(mimeResolver, transferScheduler, pipeCapacity);
     resourceId=
         ctxt.getResources().getIdentifier(path, "raw",
                                           ctxt.getPackageName());
@@ -46,7 +52,7 @@ class RawResourceStrategy extends AFDStrategy {
    * {@inheritDoc}
    */
   @Override
-  InputStream getInputStream(Uri uri) {
+  protected InputStream getInputStream(Uri uri) {
     return(appContext.getResources().openRawResource(resourceId));
   }
 
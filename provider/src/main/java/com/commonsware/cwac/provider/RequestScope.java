@@ -0,0 +1,109 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.net.Uri;
+
+/**
+ * Per-thread memo for the duration of one provider operation
+ * (e.g., one query() call). A strategy that needs to do the same
+ * expensive work for a Uri in several of its methods can stash
+ * the result here the first time and pick it up on the later
+ * calls, as all of those calls happen on the same binder thread.
+ *
+ * Outside of begin()/end(), nothing is remembered, so results
+ * never leak from one operation into the next.
+ */
+final class RequestScope {
+  private static final ThreadLocal<RequestScope> CURRENT=
+    new ThreadLocal<RequestScope>() {
+      @Override
+      protected RequestScope initialValue() {
+        return(new RequestScope());
+      }
+    };
+
+  private int depth=0;
+  private Object owner;
+  private Uri uri;
+  private Object value;
+
+  /**
+   * Starts an operation on the current thread. Calls may nest;
+   * only the outermost end() clears the memo.
+   */
+  static void begin() {
+    CURRENT.get().depth++;
+  }
+
+  /**
+   * Ends the operation started by the matching begin().
+   */
+  static void end() {
+    RequestScope scope=CURRENT.get();
+
+    if (--scope.depth<=0) {
+      scope.depth=0;
+      scope.clear();
+    }
+  }
+
+  /**
+   * @param owner the object that stashed the value
+   * @param uri the Uri that the value is for
+   * @return the stashed value, or null if there is none
+   */
+  static Object get(Object owner, Uri uri) {
+    RequestScope scope=CURRENT.get();
+
+    if (scope.depth>0 && scope.owner==owner &&
+      (scope.uri==uri || uri.equals(scope.uri))) {
+      return(scope.value);
+    }
+
+    return(null);
+  }
+
+  /**
+   * Stashes a value, if an operation is in progress.
+   *
+   * @param owner the object stashing the value
+   * @param uri the Uri that the value is for
+   * @param value the value
+   */
+  static void put(Object owner, Uri uri, Object value) {
+    RequestScope scope=CURRENT.get();
+
+    if (scope.depth>0) {
+      scope.owner=owner;
+      scope.uri=uri;
+      scope.value=value;
+    }
+  }
+
+  /**
+   * Forgets any stashed value, such as after the operation has
+   * changed the thing that the value describes.
+   */
+  static void invalidate() {
+    CURRENT.get().clear();
+  }
+
+  private void clear() {
+    owner=null;
+    uri=null;
+    value=null;
+  }
+}
@@ -0,0 +1,145 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+import java.io.File;
+
+/**
+ * A File that LocalPathStrategy has already mapped from a Uri and
+ * canonicalized, along with the results of a single stat() of
+ * that file, taken the first time any of them is needed.
+ */
+final class ResolvedFile {
+  final File file;
+  private boolean statted=false;
+  private boolean exists;
+  private boolean directory;
+  private long length;
+  private long lastModified;
+
+  /**
+   * Constructor.
+   *
+   * @param file the canonical File
+   */
+  ResolvedFile(File file) {
+    this.file=file;
+  }
+
+  /**
+   * Forces the stat() to happen now, if it has not already, so
+   * this object can be shared across threads afterwards without
+   * further synchronization.
+   *
+   * @return this object
+   */
+  ResolvedFile statNow() {
+    stat();
+
+    return(this);
+  }
+
+  /**
+   * @param other another ResolvedFile for the same file
+   * @return true if both saw the same existence, size, and
+   * modification time, false otherwise
+   */
+  boolean sameStatAs(ResolvedFile other) {
+    stat();
+    other.stat();
+
+    return(exists==other.exists && length==other.length &&
+      lastModified==other.lastModified);
+  }
+
+  /**
+   * @return true if the file exists, false otherwise
+   */
+  boolean exists() {
+    stat();
+
+    return(exists);
+  }
+
+  /**
+   * @return true if the file is a directory, false otherwise
+   */
+  boolean isDirectory() {
+    stat();
+
+    return(directory);
+  }
+
+  /**
+   * @return the length of the file, or 0 if it does not exist
+   * (same as File.length())
+   */
+  long length() {
+    stat();
+
+    return(length);
+  }
+
+  /**
+   * @return the last-modified time of the file, in milliseconds
+   * since the epoch, or 0 if it does not exist (same as
+   * File.lastModified())
+   */
+  long lastModified() {
+    stat();
+
+    return(lastModified);
+  }
+
+  private void stat() {
+    if (!statted) {
+      if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.LOLLIPOP) {
+        statNative();
+      }
+      else {
+        exists=file.exists();
+        directory=exists && file.isDirectory();
+        length=exists ? file.length() : 0;
+        lastModified=exists ? file.lastModified() : 0;
+      }
+
+      statted=true;
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+  private void statNative() {
+    try {
+      StructStat st=Os.stat(file.getPath());
+
+      exists=true;
+      directory=OsConstants.S_ISDIR(st.st_mode);
+      length=st.st_size;
+      lastModified=st.st_mtime*1000L;
+    }
+    catch (ErrnoException e) {
+      exists=false;
+      directory=false;
+      length=0;
+      lastModified=0;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import java.util.HashMap;
+
+/**
+ * The configuration of one child element of <paths>: everything
+ * that StreamProvider's buildStrategy() needs to create the
+ * StreamStrategy for it, without creating it yet. Normally
+ * created while parsing the paths XML, or by a CompiledPaths
+ * class generated from that XML at build time.
+ */
+public final class StrategyDescriptor {
+  private static final String ATTR_NAME="name";
+  private static final String ATTR_PATH="path";
+  private static final String ATTR_READ_ONLY="readOnly";
+
+
+  final String tag;
+  final String name;
+  final String path;
+  final boolean readOnly;
+  final HashMap<String, String> attrs;
+
+  /**
+   * Constructor.
+   *
+   * @param tag the tag name of the child element of <paths>
+   * @param name the value of the name attribute
+   * @param path the value of the path attribute, if any
+   * @param readOnly true if should only allow read access
+   * @param attrs all attributes
+   */
+  StrategyDescriptor(String tag, String name, String path,
+                     boolean readOnly, HashMap<String, String> attrs) {
+    this.tag=tag;
+    this.name=name;
+    this.path=path;
+    this.readOnly=readOnly;
+    this.attrs=attrs;
+  }
+
+  /**
+   * Constructor, for use by generated CompiledPaths classes. The
+   * name, path, and read-only flag are pulled from the attributes,
+   * the same way that StreamProvider does when parsing the XML.
+   *
+   * @param tag the tag name of the child element of <paths>
+   * @param attributes alternating attribute names and values
+   */
+  public StrategyDescriptor(String tag, String... attributes) {
+    HashMap<String, String> parsed=new HashMap<String, String>();
+
+    if (attributes.length % 2 != 0) {
+      throw new IllegalArgumentException("Attributes must be name/value pairs");
+    }
+
+    for (int i=0;i<attributes.length;i+=2) {
+      parsed.put(attributes[i], attributes[i+1]);
+    }
+
+    this.tag=tag;
+    this.name=parsed.get(ATTR_NAME);
+    this.path=parsed.get(ATTR_PATH);
+    this.readOnly=Boolean.parseBoolean(parsed.get(ATTR_READ_ONLY));
+    this.attrs=parsed;
+  }
+
+  /**
+   * @return a read-only copy of this descriptor, or this
+   * descriptor if it is already read-only
+   */
+  StrategyDescriptor asReadOnly() {
+    if (readOnly) {
+      return(this);
+    }
+
+    return(new StrategyDescriptor(tag, name, path, true, attrs));
+  }
+}
@@ -18,30 +18,33 @@ package com.commonsware.cwac.provider;
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.pm.PackageInfo;
+import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.XmlResourceParser;
 import android.database.Cursor;
-import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Environment;
 import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.provider.MediaStore;
 import android.provider.OpenableColumns;
 import android.text.TextUtils;
 import android.util.Log;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import org.xmlpull.v1.XmlPullParserException;
 
 /**
@@ -50,8 +53,22 @@ import org.xmlpull.v1.XmlPullParserException;
  * described in the form of StreamStrategy objects.
  */
 public class StreamProvider extends ContentProvider {
-  private static final String[] COLUMNS= {
-    OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+  /**
+   * Column holding the Uri of each child, in the Cursor returned
+   * by query() on a directory Uri.
+   */
+  public static final String COLUMN_URI="uri";
+  /**
+   * ContentValues key for insert(): if true, the content is not
+   * published when the client closes it, but can be reopened and
+   * appended to, until update() commits it
+   */
+  public static final String UPLOAD_RESUMABLE="resumable";
+  /**
+   * ContentValues key for update() of a resumable upload: true to
+   * publish the content, false to discard it
+   */
+  public static final String UPLOAD_COMMIT="commit";
   private static final String[] VALID_DIRS={
     Environment.DIRECTORY_ALARMS,
     Environment.DIRECTORY_DCIM,
@@ -66,10 +83,21 @@ public class StreamProvider extends ContentProvider {
   };
   private static final String META_DATA_FILE_PROVIDER_PATHS=
     "com.commonsware.cwac.provider.STREAM_PROVIDER_PATHS";
+  private static final String META_DATA_FILE_PROVIDER_PATHS_CLASS=
+    "com.commonsware.cwac.provider.STREAM_PROVIDER_PATHS_CLASS";
   private static final String META_DATA_USE_LEGACY_CURSOR_WRAPPER=
     "com.commonsware.cwac.provider.USE_LEGACY_CURSOR_WRAPPER";
   private static final String META_DATA_USE_URI_FOR_DATA_COLUMN=
     "com.commonsware.cwac.provider.USE_URI_FOR_DATA_COLUMN";
+  private static final String META_DATA_USE_LAZY_STRATEGIES=
+    "com.commonsware.cwac.provider.USE_LAZY_STRATEGIES";
+  private static final String META_DATA_TRANSFER_THREADS=
+    "com.commonsware.cwac.provider.TRANSFER_THREADS";
+  private static final String META_DATA_TRANSFER_THREAD_PRIORITY=
+    "com.commonsware.cwac.provider.TRANSFER_THREAD_PRIORITY";
+  private static final String META_DATA_TRANSFER_IDLE_TIMEOUT=
+    "com.commonsware.cwac.provider.TRANSFER_IDLE_TIMEOUT";
+  private static final String BATCH_PATH_SEGMENT="_batch";
   private static final String TAG_FILES_PATH="files-path";
   private static final String TAG_CACHE_PATH="cache-path";
   private static final String TAG_EXTERNAL="external-path";
@@ -85,42 +113,71 @@ public class StreamProvider extends ContentProvider {
   private static final String ATTR_PATH="path";
   private static final String ATTR_READ_ONLY="readOnly";
   private static final String ATTR_DIR="dir";
-  private static final String PREF_URI_PREFIX="uriPrefix";
+  private static final String ATTR_CACHE_METADATA="cacheMetadata";
+  private static final String ATTR_METADATA_CACHE_SIZE="metadataCacheSize";
+  private static final int DEFAULT_METADATA_CACHE_SIZE=256;
+  private static final String ATTR_MIME_TYPE="mimeType";
+  private static final String ATTR_MIME_TYPES="mimeTypes";
+  private static final String ATTR_SNIFF_MIME_TYPE="sniffMimeType";
+  private static final String ATTR_PIPE_CAPACITY="pipeCapacity";
+  private static final String ATTR_CACHE_CONTENT="cacheContent";
+  private static final String ATTR_CONTENT_CACHE_SIZE="contentCacheSize";
+  private static final String ATTR_DURABILITY="durability";
+  private static final String ATTR_SYNC_INTERVAL="syncInterval";
+  private static final String ATTR_UPLOAD_EXPIRY="uploadExpiry";
+  private static final String DURABILITY_NONE="none";
+  private static final String DURABILITY_ON_CLOSE="on-close";
+  private static final String DURABILITY_BATCHED="batched";
+  private static final long DEFAULT_CONTENT_CACHE_SIZE=32*1024*1024;
+  private static final String CONTENT_CACHE_DIR="cwac-provider";
 
   static {
     Arrays.sort(VALID_DIRS);
   }
 
-  private static ConcurrentHashMap<String, SoftReference<StreamProvider>> INSTANCES=
-    new ConcurrentHashMap<String, SoftReference<StreamProvider>>();
+  private static final Object REGISTRY_LOCK=new Object();
+  private static volatile Map<String, Registration> REGISTRY=
+    Collections.emptyMap();
   private CompositeStreamStrategy strategy;
   private boolean useLegacyCursorWrapper=false;
   private boolean useUriForDataColumn=false;
-  private SharedPreferences prefs;
   private boolean seenExternalFilesPathNoDir=false;
   private boolean seenExternalFilesPathWithDir=false;
   private boolean allReadOnly=false;
+  private MimeResolver mimeResolver;
+  private TransferScheduler transferScheduler;
+  private String[] authorities;
+  private boolean overridesValueForQueryColumn=false;
+  private final FutureTask<String> prefixTask=
+    new FutureTask<String>(new Callable<String>() {
+      @Override
+      public String call() {
+        return(getUriPrefix());
+      }
+    });
+  private volatile String encodedPrefix;
 
   /**
-   * Registers a StreamProvider for use with getUriForFile()
+   * Registers a StreamProvider for use with getUriForFile() and
+   * getUriPrefix(String), under each of the authorities from its
+   * ProviderInfo. The registry is copy-on-write: registration is
+   * rare (once per provider per process), while lookups happen
+   * whenever the app builds a Uri, and those lookups never block.
    *
-   * @param provider a StreamProvider instance
-   * @throws PackageManager.NameNotFoundException
-   */
-  private static void putInstance(StreamProvider provider)
-    throws PackageManager.NameNotFoundException {
-    PackageManager pm=provider.getContext().getPackageManager();
-    PackageInfo pkg=
-      pm.getPackageInfo(provider.getContext().getPackageName(),
-        PackageManager.GET_PROVIDERS);
-
-    for (ProviderInfo pi : pkg.providers) {
-      if (provider.getClass().getCanonicalName().equals(pi.name)) {
-        for (String authority : pi.authority.split(";")) {
-          INSTANCES.put(authority,
-            new SoftReference<StreamProvider>(provider));
-        }
+   * @param info the ProviderInfo passed into attachInfo()
+   * @param registration the snapshot to register
+   */
+  private static void putInstance(ProviderInfo info,
+                                  Registration registration) {
+    synchronized(REGISTRY_LOCK) {
+      HashMap<String, Registration> updated=
+        new HashMap<String, Registration>(REGISTRY);
+
+      for (String authority : info.authority.split(";")) {
+        updated.put(authority, registration);
       }
+
+      REGISTRY=Collections.unmodifiableMap(updated);
     }
   }
 
@@ -134,11 +191,11 @@ public class StreamProvider extends ContentProvider {
    * does not seem to be related to the named provider
    */
   public static Uri getUriForFile(String authority, File file) {
-    SoftReference<StreamProvider> ref=INSTANCES.get(authority);
+    Registration registration=REGISTRY.get(authority);
     Uri result=null;
 
-    if (ref!=null) {
-      result=ref.get().getUriForFileImpl(authority, file);
+    if (registration!=null) {
+      result=registration.getUriForFile(authority, file);
     }
 
     return(result);
@@ -153,37 +210,54 @@ public class StreamProvider extends ContentProvider {
    * @return the Uri prefix, or null if there is no prefix
    */
   public static String getUriPrefix(String authority) {
-    SoftReference<StreamProvider> ref=INSTANCES.get(authority);
+    Registration registration=REGISTRY.get(authority);
     String result=null;
 
-    if (ref!=null) {
-      result=ref.get().getUriPrefix();
+    if (registration!=null) {
+      result=registration.getPrefix();
     }
 
     return(result);
   }
 
-
   /**
-   * {@inheritDoc}
+   * Returns the Uri to query() for the metadata of many Uris in a
+   * single call. Pass the Uris, in string form, as the
+   * selectionArgs of the query(); the resulting Cursor has one row
+   * per Uri, in the same order, with the requested columns. Rows
+   * for Uris that this provider does not serve are all nulls.
+   *
+   * @param authority the authority string of the provider
+   * @return the batch Uri, or null if there is no provider
+   * registered for that authority
    */
-  @Override
-  public boolean onCreate() {
-    try {
-      putInstance(this);
+  public static Uri getBatchUri(String authority) {
+    Registration registration=REGISTRY.get(authority);
+    Uri result=null;
 
-      prefs=
-        getContext()
-          .getSharedPreferences(BuildConfig.APPLICATION_ID,
-            Context.MODE_PRIVATE);
+    if (registration!=null) {
+      Uri.Builder b=new Uri.Builder();
+      String prefix=registration.getPrefix();
 
-      return(true);
-    }
-    catch (PackageManager.NameNotFoundException e) {
-      Log.e(getClass().getSimpleName(), "Exception caching self", e);
+      b.scheme("content").authority(authority);
+
+      if (prefix!=null) {
+        b.appendPath(prefix);
+      }
+
+      result=b.appendPath(BATCH_PATH_SEGMENT).build();
     }
 
-    return(false);
+    return(result);
+  }
+
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean onCreate() {
+    return(true);
   }
 
   /**
@@ -193,21 +267,115 @@ public class StreamProvider extends ContentProvider {
   public void attachInfo(Context context, ProviderInfo info) {
     super.attachInfo(context, info);
 
+    CompositeStreamStrategy.Index index;
+
     checkSecurity(info);
+    authorities=info.authority.split(";");
+    overridesValueForQueryColumn=overridesValueForQueryColumn(getClass());
 
     try {
+      mimeResolver=buildMimeResolver(context);
       strategy=new CompositeStreamStrategy();
-
-      String[] authorities=info.authority.split(";");
-
-      for (String authority : authorities) {
-        parseStreamStrategy(strategy, context, authority);
-      }
+      parseStreamStrategy(strategy, context, info);
+      index=strategy.buildRouter();
     }
     catch (Exception e) {
       throw new IllegalArgumentException("Failed to parse "
         + META_DATA_FILE_PROVIDER_PATHS + " meta-data", e);
     }
+
+    final Registration registration=
+      new Registration(prefixTask, strategy, index);
+
+    putInstance(info, registration);
+
+    // resolve the prefix off of the main thread, so it is usually
+    // ready by the time the first request or getUriForFile() needs it
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        prefixTask.run();
+        registration.onPrefixReady();
+      }
+    }, "StreamProvider-prefix").start();
+  }
+
+  private static boolean overridesValueForQueryColumn(Class<?> cls) {
+    for (Class<?> c=cls;c!=StreamProvider.class;c=c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod("getValueForQueryColumn", Uri.class,
+          String.class);
+
+        return(true);
+      }
+      catch (NoSuchMethodException e) {
+        // keep looking
+      }
+    }
+
+    return(false);
+  }
+
+  /**
+   * Supplies the MimeResolver that the stock strategies use to
+   * map names to MIME types. Called once, from attachInfo(), before
+   * any strategies are built. Override this to return your own
+   * MimeResolver subclass.
+   *
+   * @param context a Context, because you might need one
+   * @return the MimeResolver to use
+   */
+  protected MimeResolver buildMimeResolver(Context context) {
+    return(MimeResolver.getDefault());
+  }
+
+  /**
+   * Supplies the TransferScheduler that the stock pipe-based
+   * strategies (assets and raw resources) use to copy content into
+   * pipes. Called once, from attachInfo(), before any strategies
+   * are built. By default, if the provider has a
+   * com.commonsware.cwac.provider.TRANSFER_THREADS meta-data
+   * element, this provider gets its own pool of that size (with
+   * the thread priority from the optional
+   * com.commonsware.cwac.provider.TRANSFER_THREAD_PRIORITY
+   * meta-data element). Similarly, a
+   * com.commonsware.cwac.provider.TRANSFER_IDLE_TIMEOUT meta-data
+   * element (in milliseconds, 0 for no limit) gets this provider
+   * its own pool with that idle timeout. Otherwise, it shares
+   * TransferScheduler.getDefault(). Override this to supply your
+   * own, such as one wrapping an Executor that you manage.
+   *
+   * @param context a Context, because you might need one
+   * @param metaData the provider's meta-data
+   * @return the TransferScheduler to use
+   */
+  protected TransferScheduler buildTransferScheduler(Context context,
+                                                     Bundle metaData) {
+    int threads=metaData.getInt(META_DATA_TRANSFER_THREADS, 0);
+
+    if (threads>0 || metaData.containsKey(META_DATA_TRANSFER_IDLE_TIMEOUT)) {
+      return(new TransferScheduler(
+        threads>0 ? threads : TransferScheduler.DEFAULT_THREADS,
+        metaData.getInt(META_DATA_TRANSFER_THREAD_PRIORITY,
+          Process.THREAD_PRIORITY_DEFAULT),
+        metaData.getInt(META_DATA_TRANSFER_IDLE_TIMEOUT,
+          (int)TransferScheduler.DEFAULT_IDLE_TIMEOUT)));
+    }
+
+    return(TransferScheduler.getDefault());
+  }
+
+  /**
+   * @param attrs all attributes of a child element of <paths>
+   * @return the MimeResolver for content served by that element,
+   * taking its mimeType and mimeTypes attributes into account
+   */
+  protected MimeResolver getMimeResolver(HashMap<String, String> attrs) {
+    String fixedType=attrs.get(ATTR_MIME_TYPE);
+
+    return(mimeResolver.derive(TextUtils.isEmpty(fixedType) ? null : fixedType,
+      MimeResolver.parseOverrides(attrs.get(ATTR_MIME_TYPES))));
   }
 
   /**
@@ -232,36 +400,134 @@ public class StreamProvider extends ContentProvider {
                       String[] selectionArgs, String sortOrder) {
     Uri normalized=normalize(uri);
 
+    if (isBatchUri(normalized)) {
+      return(queryBatch(projection == null ? MetadataCursor.DEFAULT_COLUMNS : projection,
+        selectionArgs));
+    }
+
+    RequestScope.begin();
+
+    try {
+      Cursor listing=strategy.queryDirectory(normalized, uri, projection,
+        sortOrder);
+
+      if (listing != null) {
+        return(listing);
+      }
+
+      return(buildMetadataCursor(normalized, uri, projection));
+    }
+    finally {
+      RequestScope.end();
+    }
+  }
+
+  private Cursor buildMetadataCursor(Uri normalized, Uri uri,
+                                     String[] projection) {
+    Uri dataUri=(useUriForDataColumn ? uri : null);
+
+    if (projection == null && !overridesValueForQueryColumn) {
+      return(new MetadataCursor(this, normalized, uri, dataUri,
+        useLegacyCursorWrapper ? MetadataCursor.DEFAULT_LEGACY_COLUMNS
+          : MetadataCursor.DEFAULT_COLUMNS,
+        useLegacyCursorWrapper ? MetadataCursor.DEFAULT_LEGACY_KINDS
+          : MetadataCursor.DEFAULT_KINDS,
+        new Object[useLegacyCursorWrapper ? 4 : 2]));
+    }
+
     if (projection == null) {
-      projection=COLUMNS;
+      projection=MetadataCursor.DEFAULT_COLUMNS;
     }
 
-    String[] cols=new String[projection.length];
-    Object[] values=new Object[projection.length];
+    // same columns as the MatrixCursor + LegacyCompatCursorWrapper
+    // combination used to return: projected columns that have a
+    // value, then _DATA and MIME_TYPE if those are missing; the
+    // stock columns always have a value, so they can wait
+
+    String[] cols=new String[projection.length+2];
+    int[] kinds=new int[cols.length];
+    Object[] values=new Object[cols.length];
+    boolean hasData=false;
+    boolean hasMimeType=false;
     int i=0;
 
     for (String col : projection) {
-      Object value=getValueForQueryColumn(normalized, col);
+      if (!overridesValueForQueryColumn &&
+        OpenableColumns.DISPLAY_NAME.equals(col)) {
+        kinds[i]=MetadataCursor.KIND_NAME;
+      }
+      else if (!overridesValueForQueryColumn &&
+        OpenableColumns.SIZE.equals(col)) {
+        kinds[i]=MetadataCursor.KIND_SIZE;
+      }
+      else {
+        Object value=getValueForQueryColumn(normalized, col);
+
+        if (value == null) {
+          continue;
+        }
 
-      if (value!=null) {
-        cols[i]=col;
-        values[i++]=value;
+        kinds[i]=MetadataCursor.KIND_VALUE;
+        values[i]=value;
       }
+
+      hasData|=MediaStore.MediaColumns.DATA.equalsIgnoreCase(col);
+      hasMimeType|=MediaStore.MediaColumns.MIME_TYPE.equalsIgnoreCase(col);
+      cols[i++]=col;
+    }
+
+    if (useLegacyCursorWrapper && !hasData) {
+      kinds[i]=MetadataCursor.KIND_DATA;
+      cols[i++]=MediaStore.MediaColumns.DATA;
+    }
+
+    if (useLegacyCursorWrapper && !hasMimeType) {
+      kinds[i]=MetadataCursor.KIND_MIME_TYPE;
+      cols[i++]=MediaStore.MediaColumns.MIME_TYPE;
     }
 
-    cols=copyOf(cols, i);
-    values=copyOf(values, i);
+    return(new MetadataCursor(this, normalized, uri, dataUri,
+      copyOf(cols, i), copyOf(kinds, i), copyOf(values, i)));
+  }
 
-    final MatrixCursor cursor=new MatrixCursor(cols, 1);
+  private static boolean isBatchUri(Uri normalized) {
+    String path=normalized.getEncodedPath();
 
-    cursor.addRow(values);
+    return(path!=null && path.length()==BATCH_PATH_SEGMENT.length()+1 &&
+      path.startsWith(BATCH_PATH_SEGMENT, 1));
+  }
 
-    if (!useLegacyCursorWrapper) {
-      return(cursor);
+  private Cursor queryBatch(String[] projection, String[] targets) {
+    if (targets == null) {
+      targets=new String[0];
     }
 
-    return(new LegacyCompatCursorWrapper(cursor, getType(uri),
-      useUriForDataColumn ? uri : null));
+    Uri[] normalized=new Uri[targets.length];
+    List<String> ours=Arrays.asList(authorities);
+    Context ctxt=getContext();
+
+    // access to the batch Uri does not imply access to what it
+    // lists, so each target needs its own grant, and this has to be
+    // checked here, on the binder thread, where the caller is known
+
+    for (int i=0;i<targets.length;i++) {
+      Uri target=Uri.parse(targets[i]);
+
+      if (ours.contains(target.getAuthority()) &&
+        ctxt.checkCallingUriPermission(target,
+          Intent.FLAG_GRANT_READ_URI_PERMISSION)==
+          PackageManager.PERMISSION_GRANTED) {
+        try {
+          normalized[i]=normalize(target);
+        }
+        catch (IllegalArgumentException e) {
+          // leave it null, so its row is empty
+        }
+      }
+    }
+
+    return(BatchMetadataQuery.run(this, projection, normalized,
+      !overridesValueForQueryColumn));
   }
 
   /**
@@ -270,6 +536,12 @@ public class StreamProvider extends ContentProvider {
    * you are handling, please chain to the superclass implementation,
    * so StreamProvider can handle the standard ones.
    *
+   * This is called on the binder thread handling the query(), so
+   * getCallingPackage() and Binder.getCallingUid() work as usual.
+   * That includes batch queries: if you override this method, the
+   * values for a batch are collected one after another on that
+   * thread, rather than in parallel on background threads.
+   *
    * @param uri the Uri to the content
    * @param col the name of the column requested in the query()
    * @return the value to return (typically a String, int, or long)
@@ -303,9 +575,17 @@ public class StreamProvider extends ContentProvider {
   @Override
   public Uri insert(Uri uri, ContentValues values) {
     uri=normalize(uri);
+    RequestScope.begin();
+
+    try {
+      if (strategy.canInsert(uri)) {
+        Uri result=strategy.insert(uri, values);
 
-    if (strategy.canInsert(uri)) {
-      return(strategy.insert(uri, values));
+        return(result == null ? null : denormalize(result));
+      }
+    }
+    finally {
+      RequestScope.end();
     }
 
     throw new UnsupportedOperationException("No external inserts");
@@ -318,9 +598,15 @@ public class StreamProvider extends ContentProvider {
   public int update(Uri uri, ContentValues values, String selection,
                     String[] selectionArgs) {
     uri=normalize(uri);
+    RequestScope.begin();
 
-    if (strategy.canUpdate(uri)) {
-      return(strategy.update(uri, values, selection, selectionArgs));
+    try {
+      if (strategy.canUpdate(uri)) {
+        return(strategy.update(uri, values, selection, selectionArgs));
+      }
+    }
+    finally {
+      RequestScope.end();
     }
 
     throw new UnsupportedOperationException("No external updates");
@@ -332,10 +618,16 @@ public class StreamProvider extends ContentProvider {
   @Override
   public int delete(Uri uri, String selection, String[] selectionArgs) {
     uri=normalize(uri);
+    RequestScope.begin();
 
-    if (strategy.canDelete(uri)) {
-      strategy.delete(uri);
-      return(1);
+    try {
+      if (strategy.canDelete(uri)) {
+        strategy.delete(uri);
+        return(1);
+      }
+    }
+    finally {
+      RequestScope.end();
     }
 
     return(0);
@@ -367,25 +659,56 @@ public class StreamProvider extends ContentProvider {
 
   private CompositeStreamStrategy parseStreamStrategy(final CompositeStreamStrategy result,
                                                       Context context,
-                                                      String authority)
+                                                      ProviderInfo info)
     throws IOException, XmlPullParserException {
-    final ProviderInfo info=
-      context.getPackageManager()
-        .resolveContentProvider(authority,
-          PackageManager.GET_META_DATA);
+    Bundle metaData=info.metaData;
+
+    if (metaData == null) {
+      // the ProviderInfo handed to attachInfo() normally lacks
+      // meta-data, as the framework does not request it; all of
+      // our authorities share one <provider>, so one lookup covers
+      // them all
+
+      ProviderInfo resolved=
+        context.getPackageManager()
+          .resolveContentProvider(info.authority.split(";")[0],
+            PackageManager.GET_META_DATA);
+
+      metaData=(resolved == null ? null : resolved.metaData);
+    }
+
+    if (metaData == null) {
+      throw new IllegalArgumentException("Missing "
+        + META_DATA_FILE_PROVIDER_PATHS + " meta-data");
+    }
+
+    useLegacyCursorWrapper=metaData.getBoolean(META_DATA_USE_LEGACY_CURSOR_WRAPPER, true);
+    useUriForDataColumn=metaData.getBoolean(META_DATA_USE_URI_FOR_DATA_COLUMN, false);
+    transferScheduler=buildTransferScheduler(context, metaData);
+
+    final boolean lazy=
+      metaData.getBoolean(META_DATA_USE_LAZY_STRATEGIES, false);
+    final String compiledPaths=
+      metaData.getString(META_DATA_FILE_PROVIDER_PATHS_CLASS);
 
-    useLegacyCursorWrapper=info.metaData.getBoolean(META_DATA_USE_LEGACY_CURSOR_WRAPPER, true);
-    useUriForDataColumn=info.metaData.getBoolean(META_DATA_USE_URI_FOR_DATA_COLUMN, false);
+    if (compiledPaths != null) {
+      for (StrategyDescriptor descriptor :
+        loadCompiledPaths(context, compiledPaths).getDescriptors()) {
+        addStrategy(result, context, descriptor, lazy);
+      }
+
+      return(result);
+    }
 
-    final XmlResourceParser in=
-      info.loadXmlMetaData(context.getPackageManager(),
-        META_DATA_FILE_PROVIDER_PATHS);
+    final int pathsResId=metaData.getInt(META_DATA_FILE_PROVIDER_PATHS);
 
-    if (in == null) {
+    if (pathsResId == 0) {
       throw new IllegalArgumentException("Missing "
         + META_DATA_FILE_PROVIDER_PATHS + " meta-data");
     }
 
+    final XmlResourceParser in=context.getResources().getXml(pathsResId);
+
     int type;
 
     while ((type=in.next()) != org.xmlpull.v1.XmlPullParser.END_DOCUMENT) {
@@ -408,16 +731,15 @@ public class StreamProvider extends ContentProvider {
             attrs.put(in.getAttributeName(i), in.getAttributeValue(i));
           }
 
-          StreamStrategy strategy=
-            buildStrategy(context, tag, name, path, readOnly, attrs);
+          validateLocalStrategy(tag, path, attrs);
+          MimeResolver.parseOverrides(attrs.get(ATTR_MIME_TYPES));
+          // so bad values fail now, even for lazy strategies
+          getDurability(attrs);
+          getSyncInterval(name, attrs);
+          getUploadExpiry(attrs);
 
-          if (strategy != null) {
-            result.add(name, strategy);
-          }
-          else {
-            throw new IllegalArgumentException("Could not build strategy for "
-              + tag);
-          }
+          addStrategy(result, context,
+            new StrategyDescriptor(tag, name, path, readOnly, attrs), lazy);
         }
       }
     }
@@ -425,6 +747,41 @@ public class StreamProvider extends ContentProvider {
     return(result);
   }
 
+  private void addStrategy(CompositeStreamStrategy result,
+                           Context context,
+                           StrategyDescriptor descriptor,
+                           boolean lazy) {
+    if (BATCH_PATH_SEGMENT.equals(descriptor.name)) {
+      throw new IllegalArgumentException(BATCH_PATH_SEGMENT
+        +" is reserved and cannot be used as a name");
+    }
+
+    if (allReadOnly) {
+      descriptor=descriptor.asReadOnly();
+    }
+
+    if (lazy) {
+      result.add(descriptor.name,
+        new LazyStreamStrategy(this, context, descriptor));
+    }
+    else {
+      result.add(descriptor.name, buildStrategy(context, descriptor));
+    }
+  }
+
+  private static CompiledPaths loadCompiledPaths(Context context,
+                                                 String className) {
+    try {
+      return((CompiledPaths)Class
+        .forName(className, true, context.getClassLoader())
+        .newInstance());
+    }
+    catch (Exception e) {
+      throw new IllegalArgumentException("Could not load "
+        + META_DATA_FILE_PROVIDER_PATHS_CLASS + " class "+className, e);
+    }
+  }
+
   /**
    * @return the prefix to use on Uri values from this provider,
    * to help prevent "Surreptitious Sharing" attacks, or null if
@@ -432,14 +789,12 @@ public class StreamProvider extends ContentProvider {
    * UUID for this installed provider)
    */
   protected String getUriPrefix() {
-    String prefix=prefs.getString(PREF_URI_PREFIX, null);
-
-    if (prefix==null) {
-      prefix=buildUriPrefix();
-      prefs.edit().putString(PREF_URI_PREFIX, prefix).apply();
-    }
-
-    return(prefix);
+    return(UriPrefixStore.getOrCreate(getContext(), new Callable<String>() {
+      @Override
+      public String call() {
+        return(buildUriPrefix());
+      }
+    }));
   }
 
   /**
@@ -472,10 +827,12 @@ public class StreamProvider extends ContentProvider {
     StreamStrategy result;
 
     if (TAG_RAW.equals(tag)) {
-      return(new RawResourceStrategy(context, path));
+      return(new RawResourceStrategy(context, path,
+        getMimeResolver(attrs), transferScheduler, getPipeCapacity(attrs)));
     }
     else if (TAG_ASSET.equals(tag)) {
-      return(new AssetStrategy(context, path));
+      return(new AssetStrategy(context, path, getMimeResolver(attrs),
+        transferScheduler, getPipeCapacity(attrs)));
     }
     else {
       result=buildLocalStrategy(context, tag, name, path, readOnly, attrs);
@@ -484,20 +841,26 @@ public class StreamProvider extends ContentProvider {
     return(result);
   }
 
-  private StreamStrategy buildLocalStrategy(Context context,
-                                            String tag, String name,
-                                            String path, boolean readOnly,
-                                            HashMap<String, String> attrs)
-    throws IOException {
-    File target=null;
+  /**
+   * Checks the attributes of the stock local-path elements,
+   * without touching the filesystem, so misconfigurations are
+   * reported at startup even when strategies are built lazily.
+   */
+  private void validateLocalStrategy(String tag, String path,
+                                     HashMap<String, String> attrs) {
+    // local files are already seekable, and a copy would go stale
+    // when the app changes the file
+    if (isLocalPathTag(tag) &&
+      Boolean.parseBoolean(attrs.get(ATTR_CACHE_CONTENT))) {
+      throw new IllegalArgumentException(ATTR_CACHE_CONTENT
+        +" is not supported on <"+tag+">");
+    }
 
     if (TAG_FILES_PATH.equals(tag)) {
       if (TextUtils.isEmpty(path)) {
         throw new
           SecurityException("Cannot serve files from all of getFilesDir()");
       }
-
-      target=buildPath(context.getFilesDir(), path);
     }
     else if (TAG_DIR_PATH.equals(tag)) {
       if (TextUtils.isEmpty(path)) {
@@ -505,20 +868,10 @@ public class StreamProvider extends ContentProvider {
           SecurityException("Cannot serve files from all of getDir()");
       }
 
-      String dir=attrs.get(ATTR_DIR);
-
-      if (TextUtils.isEmpty(dir)) {
+      if (TextUtils.isEmpty(attrs.get(ATTR_DIR))) {
         throw new
           SecurityException("You need to provide the dir attribute, to indicate which directory to serve");
       }
-
-      target=buildPath(context.getDir(dir, Context.MODE_PRIVATE), path);
-    }
-    else if (TAG_CACHE_PATH.equals(tag)) {
-      target=buildPath(context.getCacheDir(), path);
-    }
-    else if (TAG_EXTERNAL.equals(tag)) {
-      target=buildPath(Environment.getExternalStorageDirectory(), path);
     }
     else if (TAG_EXTERNAL_FILES.equals(tag)) {
       String dir=attrs.get(ATTR_DIR);
@@ -541,11 +894,6 @@ public class StreamProvider extends ContentProvider {
       if (seenExternalFilesPathNoDir && seenExternalFilesPathWithDir) {
         throw new IllegalStateException("Cannot have <external-files-path> without dir attribute and another <external-files-path> with a dir attribute");
       }
-
-      target=buildPath(context.getExternalFilesDir(dir), path);
-    }
-    else if (TAG_EXTERNAL_CACHE_FILES.equals(tag)) {
-      target=buildPath(context.getExternalCacheDir(), path);
     }
     else if (TAG_EXTERNAL_PUBLIC_FILES.equals(tag)) {
       String dir=attrs.get(ATTR_DIR);
@@ -558,17 +906,224 @@ public class StreamProvider extends ContentProvider {
       if (Arrays.binarySearch(VALID_DIRS, dir)<0) {
         throw new SecurityException(dir+" is not a valid value, choose from: "+TextUtils.join(",", VALID_DIRS));
       }
+    }
+  }
 
-      target=buildPath(Environment.getExternalStoragePublicDirectory(dir), path);
+  private static boolean isLocalPathTag(String tag) {
+    return(TAG_FILES_PATH.equals(tag) || TAG_DIR_PATH.equals(tag) ||
+      TAG_CACHE_PATH.equals(tag) || TAG_EXTERNAL.equals(tag) ||
+      TAG_EXTERNAL_FILES.equals(tag) ||
+      TAG_EXTERNAL_CACHE_FILES.equals(tag) ||
+      TAG_EXTERNAL_PUBLIC_FILES.equals(tag));
+  }
+
+  private StreamStrategy buildLocalStrategy(Context context,
+                                            String tag, String name,
+                                            String path, boolean readOnly,
+                                            HashMap<String, String> attrs)
+    throws IOException {
+    File target=null;
+
+    if (TAG_FILES_PATH.equals(tag)) {
+      target=buildPath(context.getFilesDir(), path);
+    }
+    else if (TAG_DIR_PATH.equals(tag)) {
+      target=buildPath(context.getDir(attrs.get(ATTR_DIR),
+        Context.MODE_PRIVATE), path);
+    }
+    else if (TAG_CACHE_PATH.equals(tag)) {
+      target=buildPath(context.getCacheDir(), path);
+    }
+    else if (TAG_EXTERNAL.equals(tag)) {
+      target=buildPath(Environment.getExternalStorageDirectory(), path);
+    }
+    else if (TAG_EXTERNAL_FILES.equals(tag)) {
+      String dir=attrs.get(ATTR_DIR);
+
+      if (TextUtils.isEmpty(dir)) {
+        dir=null;
+      }
+
+      target=buildPath(context.getExternalFilesDir(dir), path);
+    }
+    else if (TAG_EXTERNAL_CACHE_FILES.equals(tag)) {
+      target=buildPath(context.getExternalCacheDir(), path);
+    }
+    else if (TAG_EXTERNAL_PUBLIC_FILES.equals(tag)) {
+      target=buildPath(Environment.getExternalStoragePublicDirectory(attrs.get(ATTR_DIR)), path);
     }
 
     if (target != null) {
-      return(new LocalPathStrategy(name, target, readOnly));
+      return(new LocalPathStrategy(name, target, readOnly,
+        new LocalPathStrategy.Options()
+          .setMetadataCacheSize(getMetadataCacheSize(attrs))
+          .setMimeResolver(getMimeResolver(attrs))
+          .setSniffMimeTypes(Boolean.parseBoolean(attrs.get(ATTR_SNIFF_MIME_TYPE)))
+          .setDurability(getDurability(attrs))
+          .setSyncInterval(getSyncInterval(name, attrs))
+          .setUploadExpiry(getUploadExpiry(attrs))));
     }
 
     return(null);
   }
 
+  private static int getMetadataCacheSize(HashMap<String, String> attrs) {
+    if (!Boolean.parseBoolean(attrs.get(ATTR_CACHE_METADATA))) {
+      return(0);
+    }
+
+    String size=attrs.get(ATTR_METADATA_CACHE_SIZE);
+
+    if (TextUtils.isEmpty(size)) {
+      return(DEFAULT_METADATA_CACHE_SIZE);
+    }
+
+    try {
+      return(Integer.parseInt(size));
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException(ATTR_METADATA_CACHE_SIZE
+        +" must be an integer, not "+size, e);
+    }
+  }
+
+  private static int getDurability(HashMap<String, String> attrs) {
+    String durability=attrs.get(ATTR_DURABILITY);
+
+    if (TextUtils.isEmpty(durability) || DURABILITY_NONE.equals(durability)) {
+      return(LocalPathStrategy.DURABILITY_NONE);
+    }
+    else if (DURABILITY_ON_CLOSE.equals(durability)) {
+      return(LocalPathStrategy.DURABILITY_ON_CLOSE);
+    }
+    else if (DURABILITY_BATCHED.equals(durability)) {
+      return(LocalPathStrategy.DURABILITY_BATCHED);
+    }
+
+    throw new IllegalArgumentException(ATTR_DURABILITY
+      +" must be none, on-close, or batched, not "+durability);
+  }
+
+  private static long getSyncInterval(String name,
+                                      HashMap<String, String> attrs) {
+    String interval=attrs.get(ATTR_SYNC_INTERVAL);
+    long result;
+
+    if (TextUtils.isEmpty(interval)) {
+      return(LocalPathStrategy.DEFAULT_SYNC_INTERVAL);
+    }
+
+    try {
+      result=Long.parseLong(interval);
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException(ATTR_SYNC_INTERVAL
+        +" for "+name+" must be an integer, not "+interval, e);
+    }
+
+    if (result<=0) {
+      throw new IllegalArgumentException(ATTR_SYNC_INTERVAL
+        +" for "+name+" must be positive, not "+interval);
+    }
+
+    return(result);
+  }
+
+  private static long getUploadExpiry(HashMap<String, String> attrs) {
+    String expiry=attrs.get(ATTR_UPLOAD_EXPIRY);
+
+    if (TextUtils.isEmpty(expiry)) {
+      return(LocalPathStrategy.DEFAULT_UPLOAD_EXPIRY);
+    }
+
+    try {
+      return(Long.parseLong(expiry));
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException(ATTR_UPLOAD_EXPIRY
+        +" must be an integer, not "+expiry, e);
+    }
+  }
+
+  private static int getPipeCapacity(HashMap<String, String> attrs) {
+    String capacity=attrs.get(ATTR_PIPE_CAPACITY);
+
+    if (TextUtils.isEmpty(capacity)) {
+      return(0);
+    }
+
+    try {
+      return(Integer.parseInt(capacity));
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException(ATTR_PIPE_CAPACITY
+        +" must be an integer, not "+capacity, e);
+    }
+  }
+
+  /**
+   * Builds the strategy described by a StrategyDescriptor. Used
+   * both for eager construction in attachInfo() and by
+   * LazyStreamStrategy on first use.
+   *
+   * @param context a Context, passed along to buildStrategy()
+   * @param descriptor the configuration of the strategy
+   * @return the StreamStrategy, never null
+   */
+  StreamStrategy buildStrategy(Context context,
+                               StrategyDescriptor descriptor) {
+    StreamStrategy result;
+
+    try {
+      result=buildStrategy(context, descriptor.tag, descriptor.name,
+        descriptor.path, descriptor.readOnly, descriptor.attrs);
+    }
+    catch (IOException e) {
+      throw new IllegalArgumentException("Could not build strategy for "
+        + descriptor.tag, e);
+    }
+
+    if (result == null) {
+      throw new IllegalArgumentException("Could not build strategy for "
+        + descriptor.tag);
+    }
+
+    if (Boolean.parseBoolean(descriptor.attrs.get(ATTR_CACHE_CONTENT))) {
+      result=new CachingStreamStrategy(context, result,
+        getContentCacheDir(context, descriptor.name),
+        getContentCacheSize(descriptor.attrs));
+    }
+
+    return(result);
+  }
+
+  /**
+   * @param context a Context, because you might need one
+   * @param name the name of a child element of <paths>
+   * @return the directory in which a CachingStreamStrategy for
+   * that element should keep its files, unique to this provider
+   */
+  private File getContentCacheDir(Context context, String name) {
+    return(new File(new File(new File(context.getCacheDir(),
+      CONTENT_CACHE_DIR), authorities[0]), name));
+  }
+
+  private static long getContentCacheSize(HashMap<String, String> attrs) {
+    String size=attrs.get(ATTR_CONTENT_CACHE_SIZE);
+
+    if (TextUtils.isEmpty(size)) {
+      return(DEFAULT_CONTENT_CACHE_SIZE);
+    }
+
+    try {
+      return(Long.parseLong(size));
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException(ATTR_CONTENT_CACHE_SIZE
+        +" must be an integer, not "+size, e);
+    }
+  }
+
   /**
    * @return an instance of CompositeStreamStrategy, or some
    * subclass -- override this if you want custom behavior
@@ -587,45 +1142,86 @@ public class StreamProvider extends ContentProvider {
     return(strategy);
   }
 
-  private Uri getUriForFileImpl(String authority, File file) {
-    Uri.Builder b=new Uri.Builder();
-
-    b.scheme("content").authority(authority);
+  /**
+   * @return the prefix to use on Uri values from this provider,
+   * or null if there is no prefix, as returned by the one call
+   * that we make to getUriPrefix()
+   */
+  private String getResolvedUriPrefix() {
+    return(resolvePrefix(prefixTask));
+  }
 
-    String prefix=getUriPrefix();
+  /**
+   * Runs the prefix task on the calling thread, if nothing has
+   * started it yet, then waits for its result.
+   */
+  private static String resolvePrefix(FutureTask<String> task) {
+    task.run();
 
-    if (prefix!=null) {
-      b.appendPath(prefix);
+    try {
+      return(task.get());
     }
-
-    if (strategy.buildUriForFile(b, file)) {
-      return(b.build());
+    catch (ExecutionException e) {
+      throw new IllegalStateException("Could not determine Uri prefix",
+        e.getCause());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for Uri prefix", e);
     }
-
-    return(null);
   }
 
   private Uri normalize(Uri input) {
-    String prefix=getUriPrefix();
+    String prefix=getResolvedUriPrefix();
 
     if (prefix==null) {
       return(input);
     }
 
-    List<String> segments=new ArrayList<String>(input.getPathSegments());
-
-    if (getUriPrefix().equals(segments.get(0))) {
-      segments.remove(0);
+    String encoded=getEncodedPrefix(prefix);
+    String path=input.getEncodedPath();
+    int prefixEnd=encoded.length()+1;
 
+    if (path!=null && path.length()>prefixEnd &&
+      path.charAt(0)=='/' && path.charAt(prefixEnd)=='/' &&
+      path.startsWith(encoded, 1)) {
       return(input
         .buildUpon()
-        .path(TextUtils.join("/", segments))
+        .encodedPath(path.substring(prefixEnd))
         .build());
     }
 
     throw new IllegalArgumentException("Unrecognized Uri: "+input.toString());
   }
 
+  /**
+   * The reverse of normalize(), for Uri values that strategies
+   * hand back to us for the client.
+   */
+  private Uri denormalize(Uri input) {
+    String prefix=getResolvedUriPrefix();
+
+    if (prefix==null) {
+      return(input);
+    }
+
+    return(input
+      .buildUpon()
+      .encodedPath("/"+getEncodedPrefix(prefix)+input.getEncodedPath())
+      .build());
+  }
+
+  private String getEncodedPrefix(String prefix) {
+    String result=encodedPrefix;
+
+    if (result==null) {
+      result=Uri.encode(prefix);
+      encodedPrefix=result;
+    }
+
+    return(result);
+  }
+
   public static File buildPath(File base, String... segments) {
     File cur=base;
 
@@ -646,6 +1242,14 @@ public class StreamProvider extends ContentProvider {
     return(result);
   }
 
+  private static int[] copyOf(int[] original, int newLength) {
+    final int[] result=new int[newLength];
+
+    System.arraycopy(original, 0, result, 0, newLength);
+
+    return(result);
+  }
+
   private static Object[] copyOf(Object[] original, int newLength) {
     final Object[] result=new Object[newLength];
 
@@ -653,4 +1257,107 @@ public class StreamProvider extends ContentProvider {
 
     return(result);
   }
+
+  /**
+   * What getUriForFile() and getUriPrefix(String) need to know
+   * about a registered provider: its prefix and the routing
+   * tables that map files to Uri paths. Holding this, rather
+   * than the provider itself, keeps the registry small and
+   * means an entry can never be cleared out from under a caller.
+   *
+   * Until the prefix is resolved, and until any lazy strategies
+   * are built, this also holds what is needed to finish those
+   * jobs, which means the provider and its Context. So, the first
+   * getUriForFile() or getUriPrefix(String) for an authority may
+   * block, waiting for the prefix to be read from disk (or built)
+   * and for lazy strategies to be built. After that, only the
+   * prefix String and an immutable CompositeStreamStrategy.Index
+   * are kept, and lookups do not block.
+   */
+  private static final class Registration {
+    private volatile FutureTask<String> prefixTask;
+    private volatile String prefix=null;
+    private volatile CompositeStreamStrategy.Index index=null;
+    private CompositeStreamStrategy strategy=null;
+
+    Registration(FutureTask<String> prefixTask,
+                 CompositeStreamStrategy strategy,
+                 CompositeStreamStrategy.Index index) {
+      this.prefixTask=prefixTask;
+
+      if (index.hasUnbuilt) {
+        this.strategy=strategy;
+      }
+      else {
+        this.index=index;
+      }
+    }
+
+    String getPrefix() {
+      FutureTask<String> task=prefixTask;
+
+      if (task == null) {
+        return(prefix);
+      }
+
+      String result=resolvePrefix(task);
+
+      // prefix is written first, so anyone who sees the task
+      // cleared also sees the prefix
+
+      prefix=result;
+      prefixTask=null;
+
+      return(result);
+    }
+
+    /**
+     * Called once the prefix task has run, to let go of it, and so
+     * of the provider, if it succeeded. A failure is left for the
+     * next getPrefix() to report.
+     */
+    void onPrefixReady() {
+      try {
+        getPrefix();
+      }
+      catch (IllegalStateException e) {
+        // reported by the next lookup
+      }
+    }
+
+    Uri getUriForFile(String authority, File file) {
+      Uri.Builder b=new Uri.Builder();
+      String prefix=getPrefix();
+
+      b.scheme("content").authority(authority);
+
+      if (prefix!=null) {
+        b.appendPath(prefix);
+      }
+
+      if (getIndex().buildUriForFile(b, file)) {
+        return(b.build());
+      }
+
+      return(null);
+    }
+
+    private CompositeStreamStrategy.Index getIndex() {
+      CompositeStreamStrategy.Index result=index;
+
+      if (result == null) {
+        synchronized(this) {
+          result=index;
+
+          if (result == null) {
+            result=strategy.getCompleteIndex();
+            index=result;
+            strategy=null;
+          }
+        }
+      }
+
+      return(result);
+    }
+  }
 }
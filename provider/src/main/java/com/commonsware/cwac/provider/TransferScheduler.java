@@ -0,0 +1,423 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.os.Process;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the transfers that copy content into pipes for
+ * AbstractTransferStrategy, and hands out the buffers that they copy
+ * through. By default, transfers run on a bounded pool of threads;
+ * when all of them are busy, further transfers wait in a queue,
+ * so a burst of requests cannot create a burst of threads.
+ * Buffers are recycled, so a burst of requests does not create a
+ * burst of garbage either. Inbound transfers, which hand content
+ * written by a client to consume(), get a pool of their own, so
+ * slow uploads cannot keep reads from starting, or vice versa.
+ *
+ * Note that a queued transfer does not start until a running one
+ * finishes, so a client that opens several pipes should read
+ * them in the order it opened them, or size the pool to match.
+ *
+ * So that a client that stops reading cannot hold a thread
+ * forever, a transfer that waits on its client for the idle
+ * timeout is stopped. That needs poll(), from API Level 21, and
+ * non-blocking pipes; on devices lacking either, a stuck client
+ * would hold its thread until it closed the pipe, so there the
+ * pools are not bounded, and each
+ * transfer gets a thread of its own, as one stuck client could
+ * otherwise starve everyone else. getActiveTransfers() lists the
+ * transfers that are queued or running, and any of them can be
+ * cancelled.
+ */
+public class TransferScheduler {
+  /**
+   * Number of transfer threads used by getDefault()
+   */
+  public static final int DEFAULT_THREADS=8;
+
+  /**
+   * Number of threads for inbound transfers used by getDefault()
+   */
+  public static final int DEFAULT_INBOUND_THREADS=DEFAULT_THREADS/2;
+
+  /**
+   * Size of the buffers handed out by acquireBuffer(), and the
+   * smallest chunk size used for a transfer
+   */
+  public static final int BUFFER_SIZE=16384;
+
+  /**
+   * Idle timeout used by getDefault() and by the constructors
+   * that do not take one, in milliseconds
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT=5*60*1000;
+
+  private static final long KEEP_ALIVE_SECONDS=30;
+  private static volatile TransferScheduler DEFAULT=null;
+  private final Executor executor;
+  private final Executor inboundExecutor;
+  private final ArrayDeque<byte[]> buffers=new ArrayDeque<byte[]>();
+  private final int maxPooledBuffers;
+  private final long idleTimeout;
+  private final LinkedHashSet<PipeTransfer> active=
+    new LinkedHashSet<PipeTransfer>();
+  private long completedTransfers=0;
+  private long completedBytes=0;
+  private long completedWrites=0;
+
+  /**
+   * @return the shared scheduler, with DEFAULT_THREADS threads,
+   * plus DEFAULT_INBOUND_THREADS for inbound transfers, at the
+   * default thread priority
+   */
+  public static TransferScheduler getDefault() {
+    TransferScheduler result=DEFAULT;
+
+    if (result == null) {
+      synchronized(TransferScheduler.class) {
+        result=DEFAULT;
+
+        if (result == null) {
+          result=new TransferScheduler(DEFAULT_THREADS,
+            DEFAULT_INBOUND_THREADS, Process.THREAD_PRIORITY_DEFAULT,
+            DEFAULT_IDLE_TIMEOUT);
+          DEFAULT=result;
+        }
+      }
+    }
+
+    return(result);
+  }
+
+  /**
+   * Constructor, for a scheduler with its own pool of threads.
+   * Idle threads go away after a while and are re-created on
+   * demand.
+   *
+   * @param threads maximum number of transfers to run at once
+   * @param priority Linux thread priority for the transfer
+   *                 threads (e.g., Process.THREAD_PRIORITY_BACKGROUND)
+   */
+  public TransferScheduler(int threads, int priority) {
+    this(threads, priority, DEFAULT_IDLE_TIMEOUT);
+  }
+
+  /**
+   * Constructor, for a scheduler with its own pool of threads.
+   * Idle threads go away after a while and are re-created on
+   * demand. Inbound transfers get half as many threads again.
+   *
+   * @param threads maximum number of transfers to run at once
+   * @param priority Linux thread priority for the transfer
+   *                 threads (e.g., Process.THREAD_PRIORITY_BACKGROUND)
+   * @param idleTimeout milliseconds that a transfer may wait on
+   *                    its client before it is stopped, or 0 for
+   *                    no limit
+   */
+  public TransferScheduler(int threads, int priority, long idleTimeout) {
+    this(threads, Math.max(1, threads/2), priority, idleTimeout);
+  }
+
+  /**
+   * Constructor, for a scheduler with its own pools of threads.
+   * Idle threads go away after a while and are re-created on
+   * demand. Where the idle timeout cannot be enforced (e.g.,
+   * below API Level 21), the thread counts are ignored, as
+   * explained in the class documentation.
+   *
+   * @param threads maximum number of outbound transfers to run at
+   *                once
+   * @param inboundThreads maximum number of inbound transfers
+   *                       (those feeding consume()) to run at once
+   * @param priority Linux thread priority for the transfer
+   *                 threads (e.g., Process.THREAD_PRIORITY_BACKGROUND)
+   * @param idleTimeout milliseconds that a transfer may wait on
+   *                    its client before it is stopped, or 0 for
+   *                    no limit
+   */
+  public TransferScheduler(int threads, int inboundThreads, int priority,
+                           long idleTimeout) {
+    this(buildExecutor(threads, priority, "StreamProvider-transfer-"),
+      buildExecutor(inboundThreads, priority, "StreamProvider-consume-"),
+      threads*2, idleTimeout);
+  }
+
+  /**
+   * Constructor, for a scheduler that runs transfers on an
+   * Executor that you supply. Each transfer occupies a thread for
+   * as long as the client takes to read the content, so do not
+   * use an Executor with a small pool that is also used for other
+   * work.
+   *
+   * @param executor where to run the transfers
+   * @param maxPooledBuffers maximum number of idle buffers to keep
+   *                         for reuse
+   */
+  public TransferScheduler(Executor executor, int maxPooledBuffers) {
+    this(executor, maxPooledBuffers, DEFAULT_IDLE_TIMEOUT);
+  }
+
+  /**
+   * Constructor, for a scheduler that runs transfers on an
+   * Executor that you supply, for inbound transfers as well as
+   * outbound ones.
+   *
+   * @param executor where to run the transfers
+   * @param maxPooledBuffers maximum number of idle buffers to keep
+   *                         for reuse
+   * @param idleTimeout milliseconds that a transfer may wait on
+   *                    its client before it is stopped, or 0 for
+   *                    no limit
+   */
+  public TransferScheduler(Executor executor, int maxPooledBuffers,
+                           long idleTimeout) {
+    this(executor, executor, maxPooledBuffers, idleTimeout);
+  }
+
+  /**
+   * Constructor, for a scheduler that runs transfers on Executors
+   * that you supply.
+   *
+   * @param executor where to run outbound transfers
+   * @param inboundExecutor where to run inbound transfers (those
+   *                        feeding consume())
+   * @param maxPooledBuffers maximum number of idle buffers to keep
+   *                         for reuse
+   * @param idleTimeout milliseconds that a transfer may wait on
+   *                    its client before it is stopped, or 0 for
+   *                    no limit
+   */
+  public TransferScheduler(Executor executor, Executor inboundExecutor,
+                           int maxPooledBuffers, long idleTimeout) {
+    this.executor=executor;
+    this.inboundExecutor=inboundExecutor;
+    this.maxPooledBuffers=maxPooledBuffers;
+    this.idleTimeout=idleTimeout;
+  }
+
+  /**
+   * Runs a transfer, now or once a thread frees up. If the
+   * Executor rejects it, the transfer is cancelled and cleaned up
+   * on the calling thread.
+   *
+   * @param transfer the work to do
+   */
+  public void execute(PipeTransfer transfer) {
+    transfer.attach(this);
+
+    synchronized(active) {
+      active.add(transfer);
+    }
+
+    try {
+      if (transfer.isInbound()) {
+        inboundExecutor.execute(transfer);
+      }
+      else {
+        executor.execute(transfer);
+      }
+    }
+    catch (RuntimeException e) {
+      transfer.cancel();
+      transfer.run();
+
+      throw e;
+    }
+  }
+
+  /**
+   * @return milliseconds that a transfer may go without writing
+   * anything before it is stopped, or 0 for no limit
+   */
+  public long getIdleTimeout() {
+    return(idleTimeout);
+  }
+
+  /**
+   * @return the transfers that are queued or running, oldest first
+   */
+  public List<PipeTransfer> getActiveTransfers() {
+    synchronized(active) {
+      return(new ArrayList<PipeTransfer>(active));
+    }
+  }
+
+  /**
+   * Cancels one transfer.
+   *
+   * @param id the value of getId() for the transfer
+   * @return true if the transfer was found, false otherwise
+   */
+  public boolean cancel(long id) {
+    for (PipeTransfer transfer : getActiveTransfers()) {
+      if (transfer.getId() == id) {
+        transfer.cancel();
+
+        return(true);
+      }
+    }
+
+    return(false);
+  }
+
+  /**
+   * Cancels every transfer that is queued or running.
+   */
+  public void cancelAll() {
+    for (PipeTransfer transfer : getActiveTransfers()) {
+      transfer.cancel();
+    }
+  }
+
+  /**
+   * @return a buffer of BUFFER_SIZE bytes, to be returned via
+   * releaseBuffer() when no longer needed
+   */
+  public byte[] acquireBuffer() {
+    return(acquireBuffer(BUFFER_SIZE));
+  }
+
+  /**
+   * @param size the size of buffer needed, which varies with the
+   *             capacity of the pipe
+   * @return a buffer of the given size, to be returned via
+   * releaseBuffer() when no longer needed
+   */
+  public byte[] acquireBuffer(int size) {
+    synchronized(buffers) {
+      Iterator<byte[]> i=buffers.iterator();
+
+      while (i.hasNext()) {
+        byte[] buffer=i.next();
+
+        if (buffer.length == size) {
+          i.remove();
+
+          return(buffer);
+        }
+      }
+    }
+
+    return(new byte[size]);
+  }
+
+  /**
+   * Returns a buffer from acquireBuffer() for reuse.
+   *
+   * @param buffer the buffer, which the caller must no longer use
+   */
+  public void releaseBuffer(byte[] buffer) {
+    synchronized(buffers) {
+      if (buffers.size()<maxPooledBuffers) {
+        buffers.addFirst(buffer);
+      }
+    }
+  }
+
+  /**
+   * @return the number of transfers that have finished, for any
+   * reason
+   */
+  public long getCompletedTransferCount() {
+    synchronized(active) {
+      return(completedTransfers);
+    }
+  }
+
+  /**
+   * @return the number of bytes written to pipes by transfers that
+   * have finished
+   */
+  public long getCompletedBytes() {
+    synchronized(active) {
+      return(completedBytes);
+    }
+  }
+
+  /**
+   * @return the number of writes made by transfers that have
+   * finished; divide getCompletedBytes() by this to see how well
+   * writes are being coalesced
+   */
+  public long getCompletedWriteCount() {
+    synchronized(active) {
+      return(completedWrites);
+    }
+  }
+
+  /**
+   * Called by a PipeTransfer when it is done.
+   */
+  void remove(PipeTransfer transfer) {
+    synchronized(active) {
+      if (active.remove(transfer)) {
+        completedTransfers++;
+        completedBytes+=transfer.getBytesTransferred();
+        completedWrites+=transfer.getWriteCount();
+      }
+    }
+  }
+
+  private static Executor buildExecutor(int threads, final int priority,
+                                       final String name) {
+    ThreadPoolExecutor result;
+    ThreadFactory factory=new ThreadFactory() {
+      private final AtomicInteger count=new AtomicInteger();
+
+      @Override
+      public Thread newThread(final Runnable r) {
+        Thread thread=new Thread(new Runnable() {
+          @Override
+          public void run() {
+            Process.setThreadPriority(priority);
+            r.run();
+          }
+        }, name+count.incrementAndGet());
+
+        thread.setDaemon(true);
+
+        return(thread);
+      }
+    };
+
+    if (PipeTransfer.canTimeOut()) {
+      result=new ThreadPoolExecutor(threads, threads,
+        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), factory);
+      result.allowCoreThreadTimeOut(true);
+    }
+    else {
+      // no idle timeout, so no queueing behind a stuck client
+      result=new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), factory);
+    }
+
+    return(result);
+  }
+}
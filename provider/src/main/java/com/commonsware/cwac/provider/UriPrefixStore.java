@@ -0,0 +1,165 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * Holds the per-install Uri prefix in a tiny file, rather than in
+ * SharedPreferences, so reading it costs one small read() and no
+ * XML parsing. Prefixes saved in SharedPreferences by earlier
+ * versions of the library are copied over the first time, so
+ * existing installs keep their prefixes.
+ *
+ * All methods do disk I/O; StreamProvider calls them from a
+ * background thread started at the end of attachInfo(). Each
+ * provider has its own such thread, so they use getOrCreate(), which
+ * makes sure that they all end up with the same prefix.
+ */
+final class UriPrefixStore {
+  private static final String PREFS_NAME=BuildConfig.APPLICATION_ID;
+  private static final String PREF_URI_PREFIX="uriPrefix";
+  private static final String FILENAME=
+    BuildConfig.APPLICATION_ID+".uri-prefix";
+  private static final int MAX_LENGTH=1024;
+  private static final String TAG="UriPrefixStore";
+
+  private UriPrefixStore() {
+  }
+
+  /**
+   * Reads the saved prefix, or builds and saves one if there is
+   * none, all under one lock, so providers that start at the same
+   * time do not each save a different prefix.
+   *
+   * @param ctxt any Context will do
+   * @param builder creates the prefix if there is none; it may
+   *                return null, for no prefix, which is not saved
+   * @return the prefix, or null if there is none
+   */
+  static synchronized String getOrCreate(Context ctxt,
+                                         Callable<String> builder) {
+    String result=read(ctxt);
+
+    if (result==null) {
+      try {
+        result=builder.call();
+      }
+      catch (RuntimeException e) {
+        throw e;
+      }
+      catch (Exception e) {
+        throw new IllegalStateException("Could not build Uri prefix", e);
+      }
+
+      if (result!=null) {
+        write(ctxt, result);
+      }
+    }
+
+    return(result);
+  }
+
+  /**
+   * @param ctxt any Context will do
+   * @return the saved prefix, or null if none has been saved
+   */
+  static synchronized String read(Context ctxt) {
+    File file=getFile(ctxt);
+
+    if (file.exists()) {
+      try {
+        return(readFile(file));
+      }
+      catch (IOException e) {
+        Log.w(TAG, "Exception reading Uri prefix, will check preferences", e);
+      }
+    }
+
+    SharedPreferences prefs=
+      ctxt.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    String result=prefs.getString(PREF_URI_PREFIX, null);
+
+    if (result!=null) {
+      write(ctxt, result);
+    }
+
+    return(result);
+  }
+
+  /**
+   * @param ctxt any Context will do
+   * @param prefix the prefix to save
+   */
+  static synchronized void write(Context ctxt, String prefix) {
+    File file=getFile(ctxt);
+    File tmp=new File(file.getPath()+".tmp");
+
+    try {
+      FileOutputStream out=new FileOutputStream(tmp);
+
+      try {
+        out.write(prefix.getBytes("UTF-8"));
+        out.getFD().sync();
+      }
+      finally {
+        out.close();
+      }
+
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Could not rename "+tmp+" to "+file);
+      }
+    }
+    catch (IOException e) {
+      // we will generate a fresh prefix in the next process, which
+      // is what would happen if SharedPreferences lost the write too
+      Log.e(TAG, "Exception saving Uri prefix", e);
+    }
+  }
+
+  private static File getFile(Context ctxt) {
+    return(new File(ctxt.getFilesDir(), FILENAME));
+  }
+
+  private static String readFile(File file) throws IOException {
+    FileInputStream in=new FileInputStream(file);
+
+    try {
+      byte[] buf=new byte[MAX_LENGTH];
+      int total=0;
+      int len;
+
+      while (total<buf.length && (len=in.read(buf, total, buf.length-total))>=0) {
+        total+=len;
+      }
+
+      if (total==0) {
+        throw new IOException("Empty Uri prefix file");
+      }
+
+      return(new String(buf, 0, total, "UTF-8"));
+    }
+    finally {
+      in.close();
+    }
+  }
+}
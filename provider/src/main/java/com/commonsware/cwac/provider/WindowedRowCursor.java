@@ -0,0 +1,174 @@
+/***
+  Copyright (c) 2026 CommonsWare, LLC
+
+  Licensed under the Apache License, Version 2.0 (the "License"); you may
+  not use this file except in compliance with the License. You may obtain
+  a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+ */
+
+package com.commonsware.cwac.provider;
+
+import android.annotation.TargetApi;
+import android.database.AbstractWindowedCursor;
+import android.database.CursorWindow;
+import android.os.Build;
+
+/**
+ * Base class for cursors that produce their rows on demand and
+ * copy them straight into a CursorWindow. When the cursor is
+ * handed to another process, the framework ships that window
+ * as-is, rather than copying every cell into a fresh window
+ * through the Cursor getters. Rows are only produced for the
+ * window that the client is looking at; moving outside of it
+ * refills the window from the new position.
+ */
+abstract class WindowedRowCursor extends AbstractWindowedCursor {
+  private static final String WINDOW_NAME="StreamProvider";
+  private final String[] columns;
+  private final int count;
+
+  /**
+   * Constructor. Subclasses should call prefill() once their
+   * own fields are set up.
+   *
+   * @param columns the column names
+   * @param count the number of rows
+   */
+  WindowedRowCursor(String[] columns, int count) {
+    this.columns=columns;
+    this.count=count;
+  }
+
+  /**
+   * Produces the values for one row.
+   *
+   * @param row the position of the row
+   * @param values where to put the values, in column order
+   */
+  abstract void getRow(int row, Object[] values);
+
+  /**
+   * Fills the window with the first rows, so it is ready to ship
+   * with the cursor.
+   */
+  final void prefill() {
+    setWindow(newWindow());
+    fillWindow(0, mWindow);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getCount() {
+    return(count);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String[] getColumnNames() {
+    return(columns);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean onMove(int oldPosition, int newPosition) {
+    if (mWindow == null) {
+      setWindow(newWindow());
+      fillWindow(newPosition, mWindow);
+    }
+    else if (newPosition<mWindow.getStartPosition() ||
+      newPosition>=mWindow.getStartPosition()+mWindow.getNumRows()) {
+      fillWindow(newPosition, mWindow);
+    }
+
+    return(true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void fillWindow(int position, CursorWindow window) {
+    Object[] values=new Object[columns.length];
+
+    window.acquireReference();
+
+    try {
+      window.clear();
+      window.setStartPosition(position);
+      window.setNumColumns(columns.length);
+
+      for (int row=position;row<count;row++) {
+        getRow(row, values);
+
+        if (!window.allocRow()) {
+          break;
+        }
+
+        if (!putRow(window, values, row)) {
+          window.freeLastRow();
+          break;
+        }
+      }
+    }
+    finally {
+      window.releaseReference();
+    }
+  }
+
+  private static boolean putRow(CursorWindow window, Object[] values,
+                                int row) {
+    for (int col=0;col<values.length;col++) {
+      Object value=values[col];
+      boolean ok;
+
+      if (value == null) {
+        ok=window.putNull(row, col);
+      }
+      else if (value instanceof Long || value instanceof Integer ||
+        value instanceof Short || value instanceof Byte) {
+        ok=window.putLong(((Number)value).longValue(), row, col);
+      }
+      else if (value instanceof Double || value instanceof Float) {
+        ok=window.putDouble(((Number)value).doubleValue(), row, col);
+      }
+      else if (value instanceof byte[]) {
+        ok=window.putBlob((byte[])value, row, col);
+      }
+      else {
+        ok=window.putString(value.toString(), row, col);
+      }
+
+      if (!ok) {
+        return(false);
+      }
+    }
+
+    return(true);
+  }
+
+  @SuppressWarnings("deprecation")
+  private static CursorWindow newWindow() {
+    if (Build.VERSION.SDK_INT>=Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+      return(newNamedWindow());
+    }
+
+    return(new CursorWindow(false));
+  }
+
+  @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
+  private static CursorWindow newNamedWindow() {
+    return(new CursorWindow(WINDOW_NAME));
+  }
+}